@@ -0,0 +1,158 @@
+package org.elasticsearch.plugin.score.bench;
+
+import com.carrotsearch.randomizedtesting.annotations.TimeoutSuite;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.plugin.score.ExpertScriptPlugin;
+import org.elasticsearch.plugin.score.ExpertScripts;
+import org.elasticsearch.plugin.score.cache.ScoreCache;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.test.ESIntegTestCase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+
+/**
+ * End to end latency of the README's {@code function_score} query with each expert script against a plain
+ * {@code match} baseline, on a single local node indexing a generated {@code title}/{@code body} corpus.
+ * Runs as a JUnit suite in the benchmark profile:
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Dbench.main=org.junit.runner.JUnitCore \
+ *     -Dbench.args=org.elasticsearch.plugin.score.bench.ClusterLatencyBenchmark
+ * </pre>
+ * Sized by the system properties (passed through {@code -Dbench.jvmArgs}) {@code bench.docs} (default 100000), {@code bench.warmup} (default 50),
+ * {@code bench.iterations} (default 200) and {@code bench.cache} (default false, enables the plugin caches).
+ */
+@TimeoutSuite(millis = 2 * 60 * 60 * 1000)
+@ESIntegTestCase.ClusterScope(scope = ESIntegTestCase.Scope.SUITE, numDataNodes = 1, numClientNodes = 0, transportClientRatio = 0,
+    supportsDedicatedMasters = false)
+public class ClusterLatencyBenchmark extends ESIntegTestCase {
+    private static final String INDEX = "bench";
+    private static final String TYPE = "_doc";
+    /**
+     * 文档按bucket字段均匀分为1000份，用range过滤控制命中数
+     */
+    private static final int BUCKETS = 1000;
+    private static final int[] HIT_PER_MILLE = {1, 10, 100, 1000};
+    private static final String[] SCRIPTS = {"horspool", "match_score", "term_score"};
+    private static final int QUERIES = 32;
+
+    private static final int DOCS = Integer.getInteger("bench.docs", 100000);
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 50);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 200);
+    private static final boolean CACHE = Boolean.getBoolean("bench.cache");
+
+    @Override
+    protected Collection<Class<? extends Plugin>> nodePlugins() {
+        return Collections.singleton(ExpertScriptPlugin.class);
+    }
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        Settings.Builder settings = Settings.builder().put(super.nodeSettings(nodeOrdinal));
+        if (CACHE == false) {
+            // 重复的查询会命中缓存，默认测量不带缓存的评分开销
+            settings.put(ScoreCache.SIZE_SETTING.getKey(), "0b");
+            settings.put(ExpertScripts.QUERY_CACHE_SIZE_SETTING.getKey(), 0);
+        }
+        return settings.build();
+    }
+
+    public void testLatency() throws Exception {
+        assertAcked(prepareCreate(INDEX).setSettings(Settings.builder()
+            .put("index.number_of_shards", 1)
+            .put("index.number_of_replicas", 0)
+            .put("index.requests.cache.enable", false)));
+        ensureGreen(INDEX);
+        indexCorpus(new Random(42));
+
+        Random random = new Random(7);
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = Corpus.query(random, 4 + random.nextInt(13));
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%n%-12s %8s %10s %10s %10s%n", "query", "hits", "p50(ms)", "p99(ms)", "qps"));
+        for (int perMille : HIT_PER_MILLE) {
+            report.append(row("match", perMille, queries, null));
+            for (String script : SCRIPTS) {
+                report.append(row(script, perMille, queries, script));
+            }
+        }
+        logger.info("{}", report);
+        System.out.println(report);
+    }
+
+    private void indexCorpus(Random random) {
+        int batch = 5000;
+        for (int from = 0; from < DOCS; from += batch) {
+            BulkRequestBuilder bulk = client().prepareBulk();
+            for (int i = from; i < Math.min(DOCS, from + batch); i++) {
+                bulk.add(client().prepareIndex(INDEX, TYPE, Integer.toString(i)).setSource(
+                    "title", Corpus.text(random, 10 + random.nextInt(30)),
+                    "body", Corpus.text(random, 50 + random.nextInt(450)),
+                    "bucket", i % BUCKETS));
+            }
+            BulkResponse response = bulk.get();
+            assertFalse(response.buildFailureMessage(), response.hasFailures());
+        }
+        refresh(INDEX);
+        forceMerge();
+    }
+
+    private String row(String name, int perMille, String[] queries, String script) {
+        for (int i = 0; i < WARMUP; i++) {
+            search(queries[i % queries.length], perMille, script);
+        }
+        long[] latencies = new long[ITERATIONS];
+        long hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long begin = System.nanoTime();
+            SearchResponse response = search(queries[i % queries.length], perMille, script);
+            latencies[i] = System.nanoTime() - begin;
+            hits += response.getHits().getTotalHits();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(latencies);
+        return String.format(Locale.ROOT, "%-12s %8d %10.2f %10.2f %10.1f%n", name, hits / ITERATIONS,
+            percentile(latencies, 0.50), percentile(latencies, 0.99), ITERATIONS / seconds);
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private SearchResponse search(String query, int perMille, String script) {
+        QueryBuilder match = QueryBuilders.boolQuery()
+            .must(QueryBuilders.matchQuery("body", query))
+            .filter(QueryBuilders.rangeQuery("bucket").lt(perMille));
+        QueryBuilder searchQuery = match;
+        if (script != null) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("field", Arrays.asList("title^2", "body^1"));
+            params.put("query", query);
+            searchQuery = QueryBuilders.functionScoreQuery(match,
+                ScoreFunctionBuilders.scriptFunction(new Script(ScriptType.INLINE, ExpertScripts.LANG, script, params)))
+                .boostMode(CombineFunction.REPLACE);
+        }
+        return client().prepareSearch(INDEX).setQuery(searchQuery).setSize(10).get();
+    }
+}
@@ -0,0 +1,62 @@
+package org.elasticsearch.plugin.score.bench;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible mixed CJK/Latin texts shaped like product titles and descriptions,
+ * e.g. {@code 华为 Mate 20 Pro 6GB+128GB 亮黑色 全网通版}.
+ */
+public final class Corpus {
+    private static final String[] CJK_WORDS = {
+        "华为", "小米", "手机", "全网通", "亮黑色", "官方", "旗舰店", "正品", "新款", "限量版",
+        "笔记本", "电脑", "轻薄", "游戏本", "无线", "蓝牙", "耳机", "降噪", "运动", "跑步鞋",
+        "男士", "女士", "夏季", "纯棉", "短袖", "测试", "重复", "字符串", "哈哈哈", "误差",
+        "有限公司", "北京", "上海", "深圳", "包邮", "优惠", "套装", "礼盒", "儿童", "保温杯"
+    };
+    private static final String[] LATIN_WORDS = {
+        "Mate", "Pro", "Max", "Plus", "Lite", "iPhone", "Galaxy", "Redmi", "Note", "Air",
+        "USB", "Type-C", "WiFi", "HDMI", "SSD", "GB", "TB", "mAh", "Nike", "Adidas"
+    };
+    private static final String[] SEPARATORS = {" ", " ", " ", "", "/", "-", "+", "，", "【", "】"};
+
+    private Corpus() {
+    }
+
+    /**
+     * @return a text of exactly {@code length} chars
+     */
+    public static String text(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length + 16);
+        while (builder.length() < length) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                builder.append(CJK_WORDS[random.nextInt(CJK_WORDS.length)]);
+            } else if (kind < 9) {
+                builder.append(LATIN_WORDS[random.nextInt(LATIN_WORDS.length)]);
+            } else {
+                builder.append(random.nextInt(1000));
+            }
+            builder.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        builder.setLength(length);
+        return builder.toString();
+    }
+
+    /**
+     * @return {@code count} texts of {@code length} chars
+     */
+    public static String[] texts(Random random, int count, int length) {
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            texts[i] = text(random, length);
+        }
+        return texts;
+    }
+
+    /**
+     * A query of {@code length} chars drawn from the same vocabulary, so it partially matches the texts.
+     */
+    public static String query(Random random, int length) {
+        return text(random, length).trim();
+    }
+}
@@ -0,0 +1,79 @@
+package org.elasticsearch.plugin.score.bench;
+
+import org.elasticsearch.plugin.score.impl.Horspool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HorspoolBenchmark {
+    private static final int TEXTS = 1024;
+
+    @Param({"4", "16", "32"})
+    public int queryLength;
+
+    @Param({"30", "200", "1000"})
+    public int textLength;
+
+    private String query;
+    private String[] texts;
+    private char[][] lowerTexts;
+    private Horspool.Matcher matcher;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        query = Corpus.query(random, queryLength);
+        texts = Corpus.texts(random, TEXTS, textLength);
+        lowerTexts = new char[TEXTS][];
+        for (int i = 0; i < TEXTS; i++) {
+            lowerTexts[i] = texts[i].toLowerCase().toCharArray();
+        }
+        // 与原实现截断到相同长度，只比较算法本身
+        matcher = Horspool.Pattern.compile(query).matcher(textLength);
+    }
+
+    /**
+     * 原实现，每次调用都转小写并截断到前30个字符
+     */
+    @Benchmark
+    public long calHorspoolScoreWrapper() {
+        return Horspool.calHorspoolScoreWrapper(texts[next++ & (TEXTS - 1)], query);
+    }
+
+    /**
+     * 原实现，不截断
+     */
+    @Benchmark
+    public long calHorspoolScore() {
+        return Horspool.calHorspoolScore(texts[next++ & (TEXTS - 1)], query);
+    }
+
+    @Benchmark
+    public long compiledMatcher() {
+        char[] text = lowerTexts[next++ & (TEXTS - 1)];
+        return matcher.score(text, text.length);
+    }
+
+    @Benchmark
+    public Horspool.Pattern compilePattern() {
+        return Horspool.Pattern.compile(query);
+    }
+}
@@ -0,0 +1,70 @@
+package org.elasticsearch.plugin.score.bench;
+
+import org.elasticsearch.plugin.score.impl.MatchScore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchScoreBenchmark {
+    private static final int TEXTS = 1024;
+
+    @Param({"4", "16", "32"})
+    public int queryLength;
+
+    @Param({"30", "200", "1000"})
+    public int textLength;
+
+    private String query;
+    private String[] texts;
+    private char[][] lowerTexts;
+    private MatchScore.MatchsMetaInfo metaInfo;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        query = Corpus.query(random, queryLength);
+        texts = Corpus.texts(random, TEXTS, textLength);
+        lowerTexts = new char[TEXTS][];
+        for (int i = 0; i < TEXTS; i++) {
+            lowerTexts[i] = texts[i].toLowerCase().toCharArray();
+        }
+        metaInfo = MatchScore.MatchsMetaInfo.parseQuery(query);
+    }
+
+    @Benchmark
+    public long scoreWrapper() {
+        return MatchScore.scoreWrapper(texts[next++ & (TEXTS - 1)], metaInfo);
+    }
+
+    /**
+     * 文本已转小写，与脚本读取doc values后的路径一致
+     */
+    @Benchmark
+    public long scoreChars() {
+        char[] text = lowerTexts[next++ & (TEXTS - 1)];
+        return MatchScore.score(text, text.length, metaInfo);
+    }
+
+    @Benchmark
+    public MatchScore.MatchsMetaInfo parseQuery() {
+        return MatchScore.MatchsMetaInfo.parseQuery(query);
+    }
+}
@@ -0,0 +1,75 @@
+package org.elasticsearch.plugin.score;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the work of one shard request, counted in characters run through the algorithms (tokens for
+ * {@code expert_terms} sequences). Once a request is over {@link #MAX_CHARS_SETTING} its remaining documents are
+ * not scored by the algorithm: script scores fall back to the score of the query, rescored hits keep their first
+ * pass score and {@code expert_match} hits score 0. Unlimited by default.
+ */
+public final class CostBudget {
+    public static final Setting<Long> MAX_CHARS_SETTING = Setting.longSetting("expert_scripts.budget.max_chars",
+        0L, 0L, Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * 不限制开销的请求
+     */
+    public static final Request UNLIMITED = new Request(Long.MAX_VALUE, null);
+
+    /**
+     * 为0时不限制
+     */
+    private volatile long maxChars;
+
+    public CostBudget(Settings settings) {
+        setMaxChars(MAX_CHARS_SETTING.get(settings));
+    }
+
+    public void setMaxChars(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Starts the budget of one shard request, the setting is read once so a request keeps the budget it started
+     * with.
+     */
+    Request newRequest(ScriptStats stats) {
+        long maxChars = this.maxChars;
+        return maxChars == 0 ? UNLIMITED : new Request(maxChars, stats);
+    }
+
+    /**
+     * The budget of one shard request, shared by the leaves of the request which may be scored concurrently.
+     */
+    public static final class Request {
+        private final long maxChars;
+        private final ScriptStats stats;
+        private final AtomicLong used = new AtomicLong();
+        private final AtomicBoolean exhausted = new AtomicBoolean();
+
+        private Request(long maxChars, ScriptStats stats) {
+            this.maxChars = maxChars;
+            this.stats = stats;
+        }
+
+        /**
+         * Counts {@code chars} characters or tokens scored by the algorithm. The document being scored is always
+         * finished, the budget only stops the next ones.
+         */
+        public void charge(int chars) {
+            if (stats != null && used.addAndGet(chars) >= maxChars && exhausted.compareAndSet(false, true)) {
+                stats.onBudgetExhausted();
+            }
+        }
+
+        public boolean exhausted() {
+            return exhausted.get();
+        }
+    }
+}
@@ -2,26 +2,170 @@ package org.elasticsearch.plugin.score;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugin.score.cache.ScoreCache;
+import org.elasticsearch.plugin.score.cache.ScoreCacheService;
+import org.elasticsearch.plugin.score.cache.TextArenaCache;
+import org.elasticsearch.plugin.score.concurrent.LeafExecutor;
+import org.elasticsearch.plugin.score.concurrent.SearchCancellation;
+import org.elasticsearch.plugin.score.ingest.NormalizeProcessor;
+import org.elasticsearch.plugin.score.mapper.SignatureFieldMapper;
+import org.elasticsearch.plugin.score.mapper.TermSequenceFieldMapper;
+import org.elasticsearch.plugin.score.query.ExpertMatchQueryBuilder;
+import org.elasticsearch.plugin.score.rescore.ExpertRescorerBuilder;
+import org.elasticsearch.plugin.score.stats.ExpertStatsAction;
+import org.elasticsearch.plugin.score.stats.RestExpertStatsAction;
+import org.elasticsearch.plugin.score.stats.SlowScoreTracer;
+import org.elasticsearch.plugin.score.stats.TransportExpertStatsAction;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
+import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.ScriptPlugin;
+import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * An example script plugin that adds a {@link ScriptEngine} implementing expert scoring.
  */
-public class ExpertScriptPlugin extends Plugin implements ScriptPlugin {
+public class ExpertScriptPlugin extends Plugin implements ScriptPlugin, IngestPlugin, MapperPlugin, SearchPlugin,
+    ActionPlugin {
     protected static final Logger logger = LogManager.getLogger(ExpertScriptPlugin.class);
 
+    private final ScoreCache scoreCache;
+    private final TextArenaCache textArenaCache;
+    private final ExpertScripts scripts;
+
+    public ExpertScriptPlugin(Settings settings) {
+        this.scoreCache = new ScoreCache(settings);
+        this.textArenaCache = new TextArenaCache(settings);
+        this.scripts = new ExpertScripts(settings, scoreCache, textArenaCache);
+    }
+
     @Override
     public ScriptEngine getScriptEngine(Settings settings, Collection<ScriptContext<?>> contexts) {
-        return new MyExpertScriptEngine();
+        return new MyExpertScriptEngine(scripts);
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(ScoreCache.SIZE_SETTING, TextArenaCache.SIZE_SETTING,
+            TextArenaCache.MAX_SEGMENT_DOCS_SETTING, ExpertScripts.QUERY_CACHE_SIZE_SETTING,
+            SlowScoreTracer.THRESHOLD_SETTING, SlowScoreTracer.SIZE_SETTING, LeafExecutor.MAX_PARALLELISM_SETTING,
+            CostBudget.MAX_CHARS_SETTING, ScriptWarmer.ENABLED_SETTING, ScriptWarmer.DOCS_SETTING);
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        return Collections.singletonList(LeafExecutor.executorBuilder(settings));
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry) {
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(SlowScoreTracer.THRESHOLD_SETTING,
+            scripts.tracer()::setThreshold);
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(LeafExecutor.MAX_PARALLELISM_SETTING,
+            scripts.leafExecutor()::setMaxParallelism);
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(CostBudget.MAX_CHARS_SETTING,
+            scripts.costBudget()::setMaxChars);
+        scripts.leafExecutor().setExecutor(threadPool.executor(LeafExecutor.NAME));
+        return Arrays.asList(scoreCache, textArenaCache, scripts);
+    }
+
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        indexModule.addSearchOperationListener(new SearchCancellation());
+        indexModule.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexRemoved(Index index, IndexSettings indexSettings, IndexRemovalReason reason) {
+                // 编译后的term_score查询引用了索引的分词器
+                scripts.onIndexRemoved(index);
+            }
+        });
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> getGuiceServiceClasses() {
+        return Arrays.asList(ScoreCacheService.class, ScriptWarmer.class);
+    }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        return Collections.singletonMap(NormalizeProcessor.TYPE, new NormalizeProcessor.Factory());
+    }
+
+    @Override
+    public Map<String, Mapper.TypeParser> getMappers() {
+        Map<String, Mapper.TypeParser> mappers = new HashMap<>();
+        mappers.put(TermSequenceFieldMapper.CONTENT_TYPE, new TermSequenceFieldMapper.TypeParser());
+        mappers.put(SignatureFieldMapper.CONTENT_TYPE, new SignatureFieldMapper.TypeParser());
+        return mappers;
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Collections.singletonList(new ActionHandler<>(ExpertStatsAction.INSTANCE, TransportExpertStatsAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Collections.singletonList(new RestExpertStatsAction(settings, restController));
+    }
+
+    @Override
+    public List<QuerySpec<?>> getQueries() {
+        return Collections.singletonList(new QuerySpec<>(ExpertMatchQueryBuilder.NAME,
+            in -> new ExpertMatchQueryBuilder(in, scripts), parser -> ExpertMatchQueryBuilder.fromXContent(parser, scripts)));
+    }
+
+    @Override
+    public List<RescorerSpec<?>> getRescorers() {
+        return Collections.singletonList(new RescorerSpec<>(ExpertRescorerBuilder.NAME,
+            in -> new ExpertRescorerBuilder(in, scripts), parser -> ExpertRescorerBuilder.fromXContent(parser, scripts)));
     }
 
     /**
@@ -29,18 +173,15 @@ public class ExpertScriptPlugin extends Plugin implements ScriptPlugin {
      */
     // tag::expert_engine
     private static class MyExpertScriptEngine implements ScriptEngine {
+        private final ExpertScripts scripts;
 
-        private static final Map<String, ScoreScript.Factory> factoryLookUp = new HashMap<>();
-
-        static {
-            factoryLookUp.put("horspool", HorspoolFactory::new);
-            factoryLookUp.put("match_score", MatchScoreFactory::new);
-            factoryLookUp.put("term_score", TermScoreFactory::new);
+        MyExpertScriptEngine(ExpertScripts scripts) {
+            this.scripts = scripts;
         }
 
         @Override
         public String getType() {
-            return "expert_scripts";
+            return ExpertScripts.LANG;
         }
 
         @Override
@@ -51,12 +192,7 @@ public class ExpertScriptPlugin extends Plugin implements ScriptPlugin {
                     + " scripts cannot be used for context ["
                     + context.name + "]");
             }
-            ScoreScript.Factory factory = factoryLookUp.get(scriptSource);
-            if (factory != null) {
-                return context.factoryClazz.cast(factory);
-            }
-            throw new IllegalArgumentException("Unknown script name "
-                + scriptSource);
+            return context.factoryClazz.cast(scripts.factory(scriptSource));
         }
 
         @Override
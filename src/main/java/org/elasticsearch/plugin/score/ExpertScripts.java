@@ -0,0 +1,235 @@
+package org.elasticsearch.plugin.score;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.plugin.score.cache.ScoreCache;
+import org.elasticsearch.plugin.score.cache.TextArenaCache;
+import org.elasticsearch.plugin.score.concurrent.LeafExecutor;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.plugin.score.stats.SlowScoreTracer;
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The scoring algorithms of the plugin by script name and the node level state they share, used by the script
+ * engine and the rescorer.
+ */
+public final class ExpertScripts {
+    public static final String LANG = "expert_scripts";
+
+    public static final Setting<Integer> QUERY_CACHE_SIZE_SETTING =
+        Setting.intSetting("expert_scripts.query_cache.size", 1000, 0, Setting.Property.NodeScope);
+
+    @FunctionalInterface
+    interface FactoryBuilder {
+        ScoreLeafFactory build(Map<String, Object> params, SearchLookup lookup, ExpertScripts scripts);
+    }
+
+    private static final Map<String, FactoryBuilder> factoryLookUp = new HashMap<>();
+
+    static {
+        factoryLookUp.put(HorspoolFactory.NAME, HorspoolFactory::new);
+        factoryLookUp.put(MatchScoreFactory.NAME, MatchScoreFactory::new);
+        factoryLookUp.put(TermScoreFactory.NAME, TermScoreFactory::new);
+    }
+
+    /**
+     * Scripts without any node level state, used when a request was not built by this node's plugin.
+     */
+    public static final ExpertScripts UNCACHED =
+        new ExpertScripts(Settings.builder().put(QUERY_CACHE_SIZE_SETTING.getKey(), 0).build(), null, null);
+
+    private final ScoreCache scoreCache;
+    private final TextArenaCache textArenaCache;
+    /**
+     * 编译后的查询，key由各factory给出，value不可变，在请求和线程间共享
+     */
+    private final Cache<List<Object>, Object> compiledQueries;
+    private final LongAdder queryCacheHits = new LongAdder();
+    private final LongAdder queryCacheMisses = new LongAdder();
+    /**
+     * 脚本名 -> 统计，构造后不再修改，读取时不加锁
+     */
+    private final Map<String, ScriptStats> stats;
+    private final SlowScoreTracer tracer;
+    private final LeafExecutor leafExecutor;
+    private final CostBudget costBudget;
+    /**
+     * 启动时预热的耗时，未预热时为-1
+     */
+    private volatile long warmupNanos = -1;
+
+    public ExpertScripts(Settings settings, ScoreCache scoreCache, TextArenaCache textArenaCache) {
+        this.scoreCache = scoreCache;
+        this.textArenaCache = textArenaCache;
+        Map<String, ScriptStats> stats = new HashMap<>();
+        for (String scriptName : factoryLookUp.keySet()) {
+            stats.put(scriptName, new ScriptStats());
+        }
+        this.stats = Collections.unmodifiableMap(stats);
+        this.tracer = new SlowScoreTracer(settings);
+        this.leafExecutor = new LeafExecutor(settings);
+        this.costBudget = new CostBudget(settings);
+        int size = QUERY_CACHE_SIZE_SETTING.get(settings);
+        this.compiledQueries = size == 0 ? null : CacheBuilder.<List<Object>, Object>builder()
+            .setMaximumWeight(size)
+            .build();
+    }
+
+    /**
+     * @throws IllegalArgumentException when there is no algorithm named {@code scriptName}
+     */
+    ScoreScript.Factory factory(String scriptName) {
+        FactoryBuilder builder = builder(scriptName);
+        return (params, lookup) -> builder.build(params, lookup, this);
+    }
+
+    /**
+     * Parses the params of the named algorithm, once per request.
+     */
+    public ScoreLeafFactory newLeafFactory(String scriptName, Map<String, Object> params, SearchLookup lookup) {
+        return builder(scriptName).build(params, lookup, this);
+    }
+
+    /**
+     * @return the names of all algorithms
+     */
+    static Set<String> scriptNames() {
+        return Collections.unmodifiableSet(factoryLookUp.keySet());
+    }
+
+    private static FactoryBuilder builder(String scriptName) {
+        FactoryBuilder builder = factoryLookUp.get(scriptName);
+        if (builder == null) {
+            throw new IllegalArgumentException("Unknown script name " + scriptName);
+        }
+        return builder;
+    }
+
+    /**
+     * Returns the compiled query for {@code key}, compiling and caching it on a miss.
+     *
+     * @param key      everything the compiled query depends on, starting with the script name; the {@link Index}
+     *                 when it depends on the index, never the index components themselves
+     * @param compiler compiles the query, the result must be immutable and thread safe
+     */
+    @SuppressWarnings("unchecked")
+    <T> T compiledQuery(List<Object> key, Supplier<T> compiler) {
+        if (compiledQueries == null) {
+            return compiler.get();
+        }
+        Object compiled = compiledQueries.get(key);
+        if (compiled != null) {
+            queryCacheHits.increment();
+            return (T) compiled;
+        }
+        queryCacheMisses.increment();
+        try {
+            return (T) compiledQueries.computeIfAbsent(key, k -> compiler.get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Drops the compiled queries whose key contains {@code index}, they may hold the analyzers of the index.
+     */
+    void onIndexRemoved(Index index) {
+        if (compiledQueries == null) {
+            return;
+        }
+        for (Iterator<List<Object>> keys = compiledQueries.keys().iterator(); keys.hasNext(); ) {
+            if (keys.next().contains(index)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the cache of per-segment scores, {@code null} when scores are not cached
+     */
+    ScoreCache scoreCache() {
+        return scoreCache;
+    }
+
+    /**
+     * @return the cache of per-segment field text, {@code null} when text is not cached
+     */
+    TextArenaCache textArenaCache() {
+        return textArenaCache;
+    }
+
+    ScriptStats stats(String scriptName) {
+        return stats.get(scriptName);
+    }
+
+    /**
+     * @return a snapshot of the stats of every script on this node
+     */
+    public Map<String, ScriptStats.Snapshot> stats() {
+        Map<String, ScriptStats.Snapshot> snapshots = new HashMap<>();
+        for (Map.Entry<String, ScriptStats> entry : stats.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    public SlowScoreTracer tracer() {
+        return tracer;
+    }
+
+    public LeafExecutor leafExecutor() {
+        return leafExecutor;
+    }
+
+    public CostBudget costBudget() {
+        return costBudget;
+    }
+
+    void onWarmedUp(long nanos) {
+        this.warmupNanos = nanos;
+    }
+
+    /**
+     * @return how long the startup warmup took, -1 when the node was not warmed up
+     */
+    public long warmupNanos() {
+        return warmupNanos;
+    }
+
+    public long queryCacheHits() {
+        return queryCacheHits.sum();
+    }
+
+    public long queryCacheMisses() {
+        return queryCacheMisses.sum();
+    }
+
+    public int queryCacheCount() {
+        return compiledQueries == null ? 0 : compiledQueries.count();
+    }
+
+    public int textArenaCount() {
+        return textArenaCache == null ? 0 : textArenaCache.count();
+    }
+
+    public long textArenaBytes() {
+        return textArenaCache == null ? 0 : textArenaCache.sizeInBytes();
+    }
+}
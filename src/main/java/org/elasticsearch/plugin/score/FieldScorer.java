@@ -0,0 +1,173 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.plugin.score.stats.SlowScoreTracer;
+
+import java.io.IOException;
+
+/**
+ * Scores one field of the documents of a leaf, before the field weight is applied.
+ * Not thread safe, instances belong to a single {@link LeafScorer}.
+ */
+public abstract class FieldScorer {
+
+    /**
+     * Returned by {@link #score(int)} when the document has no value for the field.
+     */
+    public static final double MISSING = -1;
+
+    private int[] blockDocs;
+
+    /**
+     * @return the unweighted score of the field, or {@link #MISSING}
+     */
+    public abstract double score(int docId) throws IOException;
+
+    /**
+     * Scores the field unless its score cannot be above {@code minScore}. Scorers that know the length of the value
+     * before running the algorithm override this to skip it.
+     *
+     * @return the unweighted score of the field, a value not above {@code minScore} when the algorithm was skipped,
+     * or {@link #MISSING}
+     */
+    public double score(int docId, double minScore) throws IOException {
+        return score(docId);
+    }
+
+    /**
+     * An upper bound of the score of any document of the leaf, {@link Double#POSITIVE_INFINITY} when unknown.
+     */
+    public double maxScore() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Starts a block of documents, {@code docs} are increasing. The documents of the block are then bounded with
+     * {@link #blockMaxScore(int)} and scored with {@link #blockScore(int)} by their index in the block, in
+     * increasing order and possibly skipping documents. Scorers that read field values override this to read the values of the whole block before
+     * running the algorithm over them.
+     */
+    public void loadBlock(int[] docs, int count) throws IOException {
+        this.blockDocs = docs;
+    }
+
+    /**
+     * @return an upper bound of {@link #blockScore(int)}, {@link #MISSING} when the document has no value
+     */
+    public double blockMaxScore(int index) {
+        return maxScore();
+    }
+
+    /**
+     * @return the unweighted score of the {@code index}-th document of the block, or {@link #MISSING}
+     */
+    public double blockScore(int index) throws IOException {
+        return score(blockDocs[index]);
+    }
+
+    /**
+     * Reads the field value as text, lowercases it in place and scores it with {@code textScorer}.
+     */
+    public static FieldScorer text(FieldValueReader reader, TextScorer textScorer, ScriptStats stats,
+                                   SlowScoreTracer.Scope trace) {
+        return new TextFieldScorer(reader, textScorer, stats, trace);
+    }
+
+    private static final class TextFieldScorer extends FieldScorer {
+        private final FieldValueReader reader;
+        private final TextScorer textScorer;
+        private final ScriptStats stats;
+        private final SlowScoreTracer.Scope trace;
+        private final CharsRefBuilder text = new CharsRefBuilder();
+        /**
+         * 块内各文档的字段值，缺失时为null
+         */
+        private CharsRefBuilder[] block = new CharsRefBuilder[0];
+        private boolean[] found = new boolean[0];
+        private int[] blockDocs;
+
+        TextFieldScorer(FieldValueReader reader, TextScorer textScorer, ScriptStats stats, SlowScoreTracer.Scope trace) {
+            this.reader = reader;
+            this.textScorer = textScorer;
+            this.stats = stats;
+            this.trace = trace;
+        }
+
+        @Override
+        public double score(int docId) throws IOException {
+            return score(docId, Double.NEGATIVE_INFINITY);
+        }
+
+        @Override
+        public double score(int docId, double minScore) throws IOException {
+            long start = System.nanoTime();
+            boolean found = reader.read(docId, text);
+            long loaded = System.nanoTime();
+            stats.onLoad(loaded - start);
+            if (found == false) {
+                return MISSING;
+            }
+            double maxScore = textScorer.maxScore(text.length());
+            if (maxScore <= minScore) {
+                return maxScore;
+            }
+            char[] chars = text.chars();
+            int length = text.length();
+            CharacterUtils.toLowerCase(chars, 0, length);
+            double score = textScorer.score(chars, length);
+            long end = System.nanoTime();
+            stats.onAlgorithm(end - loaded);
+            trace.maybeRecord(docId, length, end - start);
+            return score;
+        }
+
+        @Override
+        public double maxScore() {
+            return textScorer.maxScore(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void loadBlock(int[] docs, int count) throws IOException {
+            if (block.length < count) {
+                CharsRefBuilder[] grown = new CharsRefBuilder[count];
+                System.arraycopy(block, 0, grown, 0, block.length);
+                for (int i = block.length; i < count; i++) {
+                    grown[i] = new CharsRefBuilder();
+                }
+                block = grown;
+                found = new boolean[count];
+            }
+            blockDocs = docs;
+            // 先按doc顺序读出整块的值，再逐个运行算法
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                found[i] = reader.read(docs[i], block[i]);
+            }
+            stats.onLoad(System.nanoTime() - start);
+        }
+
+        @Override
+        public double blockMaxScore(int index) {
+            return found[index] ? textScorer.maxScore(block[index].length()) : MISSING;
+        }
+
+        @Override
+        public double blockScore(int index) {
+            if (found[index] == false) {
+                return MISSING;
+            }
+            long start = System.nanoTime();
+            char[] chars = block[index].chars();
+            int length = block[index].length();
+            CharacterUtils.toLowerCase(chars, 0, length);
+            double score = textScorer.score(chars, length);
+            long nanos = System.nanoTime() - start;
+            stats.onAlgorithm(nanos);
+            // 块内只统计算法耗时
+            trace.maybeRecord(blockDocs[index], length, nanos);
+            return score;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.elasticsearch.index.mapper.KeywordFieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.plugin.score.cache.TextArena;
+import org.elasticsearch.plugin.score.cache.TextArenaCache;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Reads the value of one scored field for the documents of a single leaf.
+ * Keyword doc values are preferred because they avoid loading and parsing the whole {@code _source}.
+ */
+public abstract class FieldValueReader {
+
+    /**
+     * How the factories read the scored fields, selected by the {@code read_mode} script param.
+     */
+    public enum ReadMode {
+        /**
+         * Use the normalized copy written by the {@code expert_normalize} processor or keyword doc values when the
+         * field (or its {@code .keyword} subfield) has them, and fall back to {@code _source} for other fields and
+         * for documents without a doc value.
+         */
+        AUTO,
+        /**
+         * Only read doc values, including the normalized copy written by the {@code expert_normalize} processor;
+         * fails when a field has none.
+         */
+        DOC_VALUES,
+        /**
+         * Always read {@code _source}, the behaviour before doc values support.
+         */
+        SOURCE;
+
+        public static ReadMode fromString(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown read_mode [" + value + "]");
+            }
+        }
+    }
+
+    /**
+     * 默认的keyword子字段名，与es动态mapping保持一致
+     */
+    private static final String KEYWORD_SUBFIELD = ".keyword";
+
+    /**
+     * Copies the value of the field for the document into {@code into}, reusing its buffer.
+     *
+     * @return {@code false} when the document has no value for the field
+     */
+    public abstract boolean read(int docId, CharsRefBuilder into) throws IOException;
+
+    static void copy(String value, CharsRefBuilder into) {
+        int length = value.length();
+        into.grow(length);
+        value.getChars(0, length, into.chars(), 0);
+        into.setLength(length);
+    }
+
+    /**
+     * Resolves the keyword doc values field that backs {@code field}: the field itself or its {@code .keyword}
+     * subfield, {@code null} when neither has doc values.
+     */
+    public static String resolveDocValuesField(MapperService mapperService, String field) {
+        if (mapperService != null) {
+            if (isKeywordWithDocValues(mapperService.fullName(field))) {
+                return field;
+            }
+            if (isKeywordWithDocValues(mapperService.fullName(field + KEYWORD_SUBFIELD))) {
+                return field + KEYWORD_SUBFIELD;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isKeywordWithDocValues(MappedFieldType fieldType) {
+        return fieldType != null
+            && KeywordFieldMapper.CONTENT_TYPE.equals(fieldType.typeName())
+            && fieldType.hasDocValues();
+    }
+
+    /**
+     * @param arenas    caches the text of fields read from {@code _source}, {@code null} when disabled
+     * @param maxLength the truncation length of the algorithm, -1 for the whole value
+     */
+    public static FieldValueReader create(LeafReaderContext context, SourceFieldsLoader source, ScoreField field,
+                                          ReadMode mode, ScriptStats stats, TextArenaCache arenas, int maxLength)
+        throws IOException {
+        if (arenas != null && mode == ReadMode.AUTO && field.docValuesField() == null && field.normalizedField() == null) {
+            // 没有doc values的字段，首次评分该segment时把整个segment的文本读入arena
+            TextArena arena = arenas.arena(context, field.name(), maxLength);
+            if (arena != null) {
+                return new ArenaReader(arena);
+            }
+        }
+        FieldValueReader reader = new SourceValueReader(source, field.name(), stats);
+        if (field.docValuesField() != null) {
+            // keyword超过ignore_above时没有doc values，auto模式下回退到_source
+            reader = new DocValuesReader(context, field.docValuesField(), mode == ReadMode.AUTO ? reader : null);
+        } else if (mode == ReadMode.DOC_VALUES) {
+            reader = null;
+        }
+        if (field.normalizedField() != null) {
+            // 优先读取写入时归一化的字段，文档没有该值时回退到原字段
+            reader = new DocValuesReader(context, field.normalizedField(), reader);
+        }
+        return reader;
+    }
+
+    private static class SourceValueReader extends FieldValueReader {
+        private final SourceFieldsLoader source;
+        private final int slot;
+        private final ScriptStats stats;
+
+        SourceValueReader(SourceFieldsLoader source, String field, ScriptStats stats) {
+            this.source = source;
+            this.slot = source.slot(field);
+            this.stats = stats;
+        }
+
+        @Override
+        public boolean read(int docId, CharsRefBuilder into) throws IOException {
+            long start = System.nanoTime();
+            try {
+                // 同一文档的各字段共用一次解析
+                String value = source.value(docId, slot);
+                if (value == null) {
+                    return false;
+                }
+                copy(value, into);
+                return true;
+            } finally {
+                stats.onSourceLoad(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static class ArenaReader extends FieldValueReader {
+        private final TextArena arena;
+
+        ArenaReader(TextArena arena) {
+            this.arena = arena;
+        }
+
+        @Override
+        public boolean read(int docId, CharsRefBuilder into) {
+            return arena.read(docId, into);
+        }
+    }
+
+    private static class DocValuesReader extends FieldValueReader {
+        private final LeafReaderContext context;
+        private final String field;
+        private final FieldValueReader fallback;
+        private SortedSetDocValues values;
+        private final CharsRefBuilder scratch = new CharsRefBuilder();
+
+        DocValuesReader(LeafReaderContext context, String field, FieldValueReader fallback) throws IOException {
+            this.context = context;
+            this.field = field;
+            this.fallback = fallback;
+            this.values = DocValues.getSortedSet(context.reader(), field);
+        }
+
+        @Override
+        public boolean read(int docId, CharsRefBuilder into) throws IOException {
+            if (docId < values.docID()) {
+                // doc values只能向前迭代，乱序访问时重新打开
+                values = DocValues.getSortedSet(context.reader(), field);
+            }
+            if (values.advanceExact(docId) == false) {
+                return fallback != null && fallback.read(docId, into);
+            }
+            long ord = values.nextOrd();
+            long next = values.nextOrd();
+            if (next == SortedSetDocValues.NO_MORE_ORDS) {
+                into.copyUTF8Bytes(values.lookupOrd(ord));
+                return true;
+            }
+            if (fallback != null) {
+                // 多值字段与_source一致评分整个列表的字符串形式，doc values已排序去重，只能回退
+                return fallback.read(docId, into);
+            }
+            // 只读doc values时按排序去重后的值拼出列表的字符串形式
+            into.clear();
+            into.append("[");
+            appendValue(ord, into);
+            do {
+                into.append(", ");
+                appendValue(next, into);
+            } while ((next = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS);
+            into.append("]");
+            return true;
+        }
+
+        private void appendValue(long ord, CharsRefBuilder into) throws IOException {
+            scratch.copyUTF8Bytes(values.lookupOrd(ord));
+            into.append(scratch.chars(), 0, scratch.length());
+        }
+    }
+}
@@ -1,60 +1,60 @@
 package org.elasticsearch.plugin.score;
 
-import org.apache.lucene.index.LeafReader;
-import org.apache.lucene.index.LeafReaderContext;
 import org.elasticsearch.plugin.score.impl.Horspool;
-import org.elasticsearch.script.ScoreScript;
-import org.elasticsearch.search.lookup.LeafDocLookup;
+import org.elasticsearch.plugin.score.mapper.SignatureFieldScorer;
 import org.elasticsearch.search.lookup.SearchLookup;
-import org.elasticsearch.search.lookup.SourceLookup;
 
+import java.util.Arrays;
 import java.util.Map;
 
 public class HorspoolFactory extends ScoreLeafFactory {
+    public static final String NAME = "horspool";
+
+    private final Horspool.Pattern pattern;
+    private final int maxTextLength;
 
     HorspoolFactory(
-            Map<String, Object> params, SearchLookup lookup) {
-        super(params, lookup);
+            Map<String, Object> params, SearchLookup lookup, ExpertScripts scripts) {
+        this(params, lookup, scripts, maxTextLength(params));
     }
 
-    @Override
-    public ScoreScript newInstance(LeafReaderContext context) {
-        LeafReader reader = context.reader();
-        SourceLookup source = lookup.getLeafSearchLookup(context).source();
-        LeafDocLookup doc = lookup.getLeafSearchLookup(context).doc();
-        return new ScoreScript(params, lookup, context) {
-            int currentDocid = -1;
+    private HorspoolFactory(
+            Map<String, Object> params, SearchLookup lookup, ExpertScripts scripts, int maxTextLength) {
+        super(NAME, params, lookup, scripts, maxTextLength);
+        this.maxTextLength = maxTextLength;
+        this.pattern = scripts.compiledQuery(Arrays.asList(NAME, query), () -> Horspool.Pattern.compile(query));
+    }
+
+    private static int maxTextLength(Map<String, Object> params) {
+        if (params.containsKey("max_text_length") == false) {
+            return Horspool.MAX_TEXT_LENGTH;
+        }
+        int maxTextLength = Integer.parseInt(params.get("max_text_length").toString());
+        if (maxTextLength <= 0) {
+            throw new IllegalArgumentException("[max_text_length] must be positive but was [" + maxTextLength + "]");
+        }
+        return maxTextLength;
+    }
 
+    @Override
+    protected TextScorer newTextScorer() {
+        Horspool.Matcher matcher = pattern.matcher(maxTextLength);
+        return new TextScorer() {
             @Override
-            public void setDocument(int docid) {
-                currentDocid = docid;
+            public double score(char[] text, int length) {
+                return matcher.score(text, length);
             }
 
             @Override
-            public double execute() {
-                //获取原来的评分
-                double rawScore = this.get_score();
-                final double[] maxScore = {0.0};
-                fields.forEach(fieldWeight -> {
-                    String[] split = fieldWeight.split("\\^");
-                    String field = split[0];
-                    double weight = split.length == 2 ? Double.parseDouble(split[1]) : 1;
-                    source.setSegmentAndDocument(context, currentDocid);
-                    String value = "";
-                    if (source.containsKey(field)) {
-                        value = String.valueOf(source.get(field));
-                    } else {
-                        return;
-                    }
-                    double score = Horspool.calHorspoolScoreWrapper(value, query);
-//                            double score=MatchScore.scoreWrapper(value,query);
-                    score = score * weight;
-                    if (score > maxScore[0]) {
-                        maxScore[0] = score;
-                    }
-                });
-                return maxScore[0];
+            public double maxScore(int length) {
+                return matcher.maxScore(length);
             }
         };
     }
+
+    @Override
+    protected SignatureFieldScorer.Prefilter prefilter() {
+        return new SignatureFieldScorer.Prefilter(pattern.unigramSignature(), pattern.bigramSignature(),
+            (length, maxPhraseLength) -> pattern.maxScore(Math.min(length, maxTextLength), maxPhraseLength));
+    }
 }
@@ -0,0 +1,197 @@
+package org.elasticsearch.plugin.score;
+
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Scores the documents of one leaf: every scored field is scored by its {@link FieldScorer}
+ * and the best weighted field score wins.
+ * <p>
+ * Fields are evaluated highest weight first. A field is skipped as soon as its weighted upper bound cannot beat the
+ * best weighted score so far, and evaluation stops once no remaining field can, so the result is the same as scoring
+ * every field.
+ * Once the {@link CostBudget} of the request is used up documents are no longer scored, see {@link #DEGRADED}.
+ * Not thread safe, each consumer of a leaf gets its own instance.
+ */
+public final class LeafScorer {
+
+    /**
+     * Returned by {@link #score(int)} when the cost budget of the request is used up, the caller substitutes a
+     * cheaper score.
+     */
+    public static final double DEGRADED = -1;
+
+    private final ScoreField[] fields;
+    private final FieldScorer[] scorers;
+    private final ScriptStats stats;
+    private final CostBudget.Request budget;
+    /**
+     * 按权重从高到低的字段下标，权重相同时保持请求中的顺序
+     */
+    private final int[] order;
+    /**
+     * remainingMax[k]：order中第k个及之后的字段加权后的分值上界的最大值
+     */
+    private final double[] remainingMax;
+    /**
+     * 块内当前文档各字段加权后的分值上界，按order排列
+     */
+    private final double[] blockBounds;
+
+    LeafScorer(ScoreField[] fields, FieldScorer[] scorers, ScriptStats stats, CostBudget.Request budget) {
+        this.fields = fields;
+        this.scorers = scorers;
+        this.stats = stats;
+        this.budget = budget;
+        Integer[] sorted = new Integer[fields.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, Comparator.comparingDouble((Integer i) -> fields[i].weight()).reversed());
+        this.order = new int[fields.length];
+        this.remainingMax = new double[fields.length + 1];
+        for (int k = fields.length - 1; k >= 0; k--) {
+            order[k] = sorted[k];
+            remainingMax[k] = Math.max(remainingMax[k + 1], weighted(scorers[order[k]].maxScore(), order[k]));
+        }
+        this.blockBounds = new double[fields.length];
+    }
+
+    /**
+     * 权重不为正的字段不可能超过初始的0分，不需要评分
+     */
+    private double weighted(double score, int field) {
+        double weight = fields[field].weight();
+        return weight <= 0 ? 0.0 : score * weight;
+    }
+
+    /**
+     * @return the best weighted field score, or {@link #DEGRADED}
+     */
+    public double score(int docId) throws IOException {
+        if (budget.exhausted()) {
+            stats.onDegraded(1);
+            return DEGRADED;
+        }
+        double maxScore = 0.0;
+        for (int k = 0; k < order.length; k++) {
+            if (remainingMax[k] <= maxScore) {
+                // 剩下的字段都不可能超过当前最高分
+                stats.onSkippedFields(order.length - k);
+                break;
+            }
+            int field = order[k];
+            double weight = fields[field].weight();
+            if (weighted(scorers[field].maxScore(), field) <= maxScore) {
+                stats.onSkippedFields(1);
+                continue;
+            }
+            // 读取字段值后，按长度估计的上界不超过maxScore时不运行算法
+            double score = scorers[field].score(docId, maxScore / weight);
+            if (score == FieldScorer.MISSING) {
+                stats.onMissingField();
+                continue;
+            }
+            score = score * weight;
+            if (score > maxScore) {
+                maxScore = score;
+            }
+        }
+        return maxScore;
+    }
+
+    /**
+     * An upper bound of the score of any document of the leaf, {@link Double#POSITIVE_INFINITY} when unknown.
+     */
+    public double maxScore() {
+        return remainingMax[0];
+    }
+
+    /**
+     * Scores a block of documents, {@code docs} are increasing.
+     */
+    public void score(int[] docs, int count, float[] scores) throws IOException {
+        score(docs, count, scores, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Scores a block of documents, {@code docs} are increasing. The values of all fields are read first, documents
+     * whose upper bound is below {@code minCompetitiveScore} are not run through the algorithm and score 0, like the
+     * documents after the cost budget was used up. Documents that may tie are scored, since a tie with a lower doc
+     * id still competes.
+     *
+     * @return the number of documents that were not scored
+     */
+    public int score(int[] docs, int count, float[] scores, double minCompetitiveScore) throws IOException {
+        if (budget.exhausted()) {
+            Arrays.fill(scores, 0, count, 0f);
+            stats.onDegraded(count);
+            return count;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            scorers[i].loadBlock(docs, count);
+        }
+        int pruned = 0;
+        int degraded = 0;
+        for (int j = 0; j < count; j++) {
+            if (budget.exhausted()) {
+                // 块内的字段值已读取，但不再运行算法
+                scores[j] = 0f;
+                degraded++;
+                continue;
+            }
+            double bound = 0.0;
+            for (int k = 0; k < order.length; k++) {
+                double fieldBound = scorers[order[k]].blockMaxScore(j);
+                blockBounds[k] = fieldBound == FieldScorer.MISSING ? FieldScorer.MISSING : weighted(fieldBound, order[k]);
+                bound = Math.max(bound, blockBounds[k]);
+            }
+            if (bound < minCompetitiveScore) {
+                // 上界低于当前第k个评分，不可能进入前k，不再运行算法，评分记为0而不是上界
+                scores[j] = 0f;
+                pruned++;
+                continue;
+            }
+            scores[j] = (float) scoreBlockDoc(j);
+        }
+        if (pruned > 0) {
+            stats.onPruned(pruned);
+        }
+        if (degraded > 0) {
+            stats.onDegraded(degraded);
+        }
+        return pruned + degraded;
+    }
+
+    private double scoreBlockDoc(int j) throws IOException {
+        double maxScore = 0.0;
+        int skipped = 0;
+        for (int k = 0; k < order.length; k++) {
+            if (blockBounds[k] == FieldScorer.MISSING) {
+                stats.onMissingField();
+                continue;
+            }
+            if (blockBounds[k] <= maxScore) {
+                skipped++;
+                continue;
+            }
+            double score = scorers[order[k]].blockScore(j);
+            if (score == FieldScorer.MISSING) {
+                stats.onMissingField();
+                continue;
+            }
+            maxScore = Math.max(maxScore, score * fields[order[k]].weight());
+        }
+        if (skipped > 0) {
+            stats.onSkippedFields(skipped);
+        }
+        return maxScore;
+    }
+
+    public ScriptStats stats() {
+        return stats;
+    }
+}
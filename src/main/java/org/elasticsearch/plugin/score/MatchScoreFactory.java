@@ -1,60 +1,41 @@
 package org.elasticsearch.plugin.score;
 
-import org.apache.lucene.index.LeafReader;
-import org.apache.lucene.index.LeafReaderContext;
 import org.elasticsearch.plugin.score.impl.MatchScore;
-import org.elasticsearch.script.ScoreScript;
-import org.elasticsearch.search.lookup.LeafDocLookup;
+import org.elasticsearch.plugin.score.mapper.SignatureFieldScorer;
 import org.elasticsearch.search.lookup.SearchLookup;
-import org.elasticsearch.search.lookup.SourceLookup;
 
+import java.util.Arrays;
 import java.util.Map;
 
 public class MatchScoreFactory extends ScoreLeafFactory {
+    public static final String NAME = "match_score";
+
     private final MatchScore.MatchsMetaInfo matchsMetaInfo;
 
-    protected MatchScoreFactory(Map<String, Object> params, SearchLookup lookup) {
-        super(params, lookup);
-        this.matchsMetaInfo = MatchScore.MatchsMetaInfo.parseQuery(query);
+    protected MatchScoreFactory(Map<String, Object> params, SearchLookup lookup, ExpertScripts scripts) {
+        super(NAME, params, lookup, scripts);
+        this.matchsMetaInfo = scripts.compiledQuery(Arrays.asList(NAME, query),
+            () -> MatchScore.MatchsMetaInfo.parseQuery(query));
     }
 
     @Override
-    public ScoreScript newInstance(LeafReaderContext context) {
-        LeafReader reader = context.reader();
-        SourceLookup source = lookup.getLeafSearchLookup(context).source();
-        LeafDocLookup doc = lookup.getLeafSearchLookup(context).doc();
-        return new ScoreScript(params, lookup, context) {
-            int currentDocid = -1;
-
+    protected TextScorer newTextScorer() {
+        return new TextScorer() {
             @Override
-            public void setDocument(int docid) {
-                currentDocid = docid;
+            public double score(char[] text, int length) {
+                return MatchScore.score(text, length, matchsMetaInfo);
             }
 
             @Override
-            public double execute() {
-                //获取原来的评分
-                double rawScore = this.get_score();
-                final double[] maxScore = {0.0};
-                fields.forEach(fieldWeight -> {
-                    String[] split = fieldWeight.split("\\^");
-                    String field = split[0];
-                    double weight = split.length == 2 ? Double.parseDouble(split[1]) : 1;
-                    source.setSegmentAndDocument(context, currentDocid);
-                    String value = "";
-                    if (source.containsKey(field)) {
-                        value = String.valueOf(source.get(field));
-                    } else {
-                        return;
-                    }
-                    double score = MatchScore.scoreWrapper(value, matchsMetaInfo);
-                    score = score * weight;
-                    if (score > maxScore[0]) {
-                        maxScore[0] = score;
-                    }
-                });
-                return maxScore[0];
+            public double maxScore(int length) {
+                return matchsMetaInfo.maxScore(length);
             }
         };
     }
+
+    @Override
+    protected SignatureFieldScorer.Prefilter prefilter() {
+        return new SignatureFieldScorer.Prefilter(matchsMetaInfo.unigramSignature(), matchsMetaInfo.bigramSignature(),
+            matchsMetaInfo::maxScore);
+    }
 }
@@ -0,0 +1,204 @@
+package org.elasticsearch.plugin.score;
+
+import com.carrotsearch.hppc.LongDoubleHashMap;
+import com.carrotsearch.hppc.cursors.LongDoubleCursor;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Remembers the score of each distinct value of a keyword doc values field within a leaf, so documents sharing a
+ * value are scored once; documents with several values are always left to the delegate. Decorates the scorer that
+ * reads the same field; only exact scores are remembered, never the upper bounds returned for documents that could
+ * not compete. Memory grows with the values actually scored: a map until a quarter of a small dictionary was
+ * scored, an array of the dictionary size after that.
+ */
+final class OrdinalMemoFieldScorer extends FieldScorer {
+
+    /**
+     * 不超过该值的ordinal数在已评分的值足够多后改用数组，否则始终使用只保存已评分ordinal的map
+     */
+    static final int DENSE_MAX_ORDS = 1 << 16;
+
+    private final LeafReader reader;
+    private final String field;
+    private final FieldScorer delegate;
+    private final ScriptStats stats;
+    private SortedSetDocValues values;
+    private final long valueCount;
+    /**
+     * 已评分的ordinal -> 分值，首次记录时创建，改用数组后为null
+     */
+    private LongDoubleHashMap sparse;
+    /**
+     * ordinal -> 分值，未评分时为NaN；map中的值达到字典的1/4后才创建，此时map每个值的开销已接近数组
+     */
+    private double[] dense;
+
+    /**
+     * 块内各文档的ordinal，没有值时为-1
+     */
+    private long[] blockOrds = new long[0];
+    /**
+     * 块内各文档在delegate的块中的下标，开始块时已有分值的文档为-1
+     */
+    private int[] delegateIndex = new int[0];
+    private int[] delegateDocs = new int[0];
+
+    private OrdinalMemoFieldScorer(LeafReader reader, String field, SortedSetDocValues values, FieldScorer delegate,
+                                   ScriptStats stats) {
+        this.reader = reader;
+        this.field = field;
+        this.values = values;
+        this.delegate = delegate;
+        this.stats = stats;
+        this.valueCount = values.getValueCount();
+    }
+
+    /**
+     * Wraps {@code delegate}, which must read its value from {@code field} whenever the document has one there.
+     * Returns {@code delegate} itself when the leaf has no repeated values of the field.
+     */
+    static FieldScorer wrap(LeafReader reader, String field, FieldScorer delegate, ScriptStats stats)
+        throws IOException {
+        SortedSetDocValues values = DocValues.getSortedSet(reader, field);
+        long valueCount = values.getValueCount();
+        if (valueCount == 0 || valueCount >= reader.maxDoc()) {
+            // 没有值或每个文档的值都不同时，记录分值只有开销
+            return delegate;
+        }
+        return new OrdinalMemoFieldScorer(reader, field, values, delegate, stats);
+    }
+
+    /**
+     * 文档没有值或有多个值时为-1：多值字段与 FieldValueReader 一致评分整个列表，分值不由单个ordinal决定，交给delegate
+     */
+    private long ord(int docId) throws IOException {
+        if (docId < values.docID()) {
+            // doc values只能向前迭代，乱序访问时重新打开
+            values = DocValues.getSortedSet(reader, field);
+        }
+        if (values.advanceExact(docId) == false) {
+            return -1;
+        }
+        long ord = values.nextOrd();
+        return values.nextOrd() == SortedSetDocValues.NO_MORE_ORDS ? ord : -1;
+    }
+
+    private double get(long ord) {
+        if (dense != null) {
+            return dense[(int) ord];
+        }
+        return sparse == null ? Double.NaN : sparse.getOrDefault(ord, Double.NaN);
+    }
+
+    private void put(long ord, double score) {
+        if (dense != null) {
+            dense[(int) ord] = score;
+            return;
+        }
+        if (sparse == null) {
+            sparse = new LongDoubleHashMap();
+        }
+        sparse.put(ord, score);
+        if (valueCount <= DENSE_MAX_ORDS && sparse.size() >= valueCount >>> 2) {
+            dense = new double[(int) valueCount];
+            Arrays.fill(dense, Double.NaN);
+            for (LongDoubleCursor cursor : sparse) {
+                dense[(int) cursor.key] = cursor.value;
+            }
+            sparse = null;
+        }
+    }
+
+    /**
+     * @return whether the scores are kept in an array of the dictionary size
+     */
+    boolean isDense() {
+        return dense != null;
+    }
+
+    @Override
+    public double score(int docId) throws IOException {
+        return score(docId, Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public double score(int docId, double minScore) throws IOException {
+        long ord = ord(docId);
+        if (ord < 0) {
+            return delegate.score(docId, minScore);
+        }
+        double score = get(ord);
+        if (Double.isNaN(score) == false) {
+            stats.onOrdinalHit();
+            return score;
+        }
+        score = delegate.score(docId, minScore);
+        if (score > minScore) {
+            // 不超过minScore时可能是跳过算法返回的上界
+            put(ord, score);
+        }
+        return score;
+    }
+
+    @Override
+    public double maxScore() {
+        return delegate.maxScore();
+    }
+
+    @Override
+    public void loadBlock(int[] docs, int count) throws IOException {
+        if (blockOrds.length < count) {
+            blockOrds = new long[count];
+            delegateIndex = new int[count];
+            delegateDocs = new int[count];
+        }
+        // 已有分值的文档不再读取字段值
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            long ord = ord(docs[i]);
+            blockOrds[i] = ord;
+            if (ord >= 0 && Double.isNaN(get(ord)) == false) {
+                delegateIndex[i] = -1;
+            } else {
+                delegateIndex[i] = n;
+                delegateDocs[n++] = docs[i];
+            }
+        }
+        delegate.loadBlock(delegateDocs, n);
+    }
+
+    @Override
+    public double blockMaxScore(int index) {
+        long ord = blockOrds[index];
+        if (ord >= 0) {
+            // 块内前面的文档可能已经评分了相同的值
+            double score = get(ord);
+            if (Double.isNaN(score) == false) {
+                return score;
+            }
+        }
+        return delegate.blockMaxScore(delegateIndex[index]);
+    }
+
+    @Override
+    public double blockScore(int index) throws IOException {
+        long ord = blockOrds[index];
+        if (ord < 0) {
+            return delegate.blockScore(delegateIndex[index]);
+        }
+        double score = get(ord);
+        if (Double.isNaN(score) == false) {
+            stats.onOrdinalHit();
+            return score;
+        }
+        score = delegate.blockScore(delegateIndex[index]);
+        put(ord, score);
+        return score;
+    }
+}
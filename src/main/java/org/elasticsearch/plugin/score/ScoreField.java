@@ -0,0 +1,108 @@
+package org.elasticsearch.plugin.score;
+
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.plugin.score.ingest.NormalizeProcessor;
+import org.elasticsearch.plugin.score.mapper.SignatureFieldMapper;
+
+/**
+ * A scored field parsed once per request from its {@code field^weight} spec.
+ */
+public final class ScoreField {
+    private final String name;
+    private final double weight;
+    /**
+     * doc values字段名，为null时从_source读取
+     */
+    private final String docValuesField;
+    /**
+     * {@link NormalizeProcessor} 写入的归一化字段的doc values字段名，不存在时为null
+     */
+    private final String normalizedField;
+    /**
+     * {@link SignatureFieldMapper} 子字段名，不存在时为null
+     */
+    private final String signatureField;
+
+    ScoreField(String name, double weight, String docValuesField, String normalizedField, String signatureField) {
+        this.name = name;
+        this.weight = weight;
+        this.docValuesField = docValuesField;
+        this.normalizedField = normalizedField;
+        this.signatureField = signatureField;
+    }
+
+    /**
+     * 解析 field^weight 格式，未指定权重时为1
+     *
+     * @param maxTextLength 算法截断文本的长度，小于等于0表示不截断，只有截断长度相同或未截断的归一化字段可用
+     */
+    static ScoreField parse(String fieldWeight, MapperService mapperService,
+                            FieldValueReader.ReadMode readMode, int maxTextLength) {
+        String[] split = fieldWeight.split("\\^");
+        if (split.length > 2) {
+            throw new IllegalArgumentException("Invalid field [" + fieldWeight + "], expected field^weight");
+        }
+        String name = split[0];
+        double weight = split.length == 2 ? Double.parseDouble(split[1]) : 1;
+        if (readMode == FieldValueReader.ReadMode.SOURCE) {
+            return new ScoreField(name, weight, null, null, null);
+        }
+        String docValuesField = FieldValueReader.resolveDocValuesField(mapperService, name);
+        String normalizedField = null;
+        if (maxTextLength > 0) {
+            normalizedField = FieldValueReader.resolveDocValuesField(mapperService,
+                NormalizeProcessor.targetField(name, maxTextLength));
+        }
+        if (normalizedField == null) {
+            normalizedField = FieldValueReader.resolveDocValuesField(mapperService,
+                NormalizeProcessor.targetField(name, -1));
+        }
+        if (readMode == FieldValueReader.ReadMode.DOC_VALUES && docValuesField == null && normalizedField == null) {
+            throw new IllegalArgumentException("Field [" + name
+                + "] has no keyword doc values, use read_mode [auto] or [source]");
+        }
+        return new ScoreField(name, weight, docValuesField, normalizedField, signatureField(mapperService, name));
+    }
+
+    /**
+     * 查找字段下的 expert_signature 子字段
+     */
+    private static String signatureField(MapperService mapperService, String field) {
+        if (mapperService == null) {
+            return null;
+        }
+        for (String name : mapperService.simpleMatchToFullName(field + ".*")) {
+            MappedFieldType fieldType = mapperService.fullName(name);
+            if (fieldType instanceof SignatureFieldMapper.SignatureFieldType) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public double weight() {
+        return weight;
+    }
+
+    public String docValuesField() {
+        return docValuesField;
+    }
+
+    public String normalizedField() {
+        return normalizedField;
+    }
+
+    public String signatureField() {
+        return signatureField;
+    }
+
+    @Override
+    public String toString() {
+        return name + "^" + weight;
+    }
+}
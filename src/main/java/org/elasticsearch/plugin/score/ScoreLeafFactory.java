@@ -1,20 +1,103 @@
 package org.elasticsearch.plugin.score;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.index.shard.ShardUtils;
+import org.elasticsearch.plugin.score.cache.ScoreCache;
+import org.elasticsearch.plugin.score.mapper.SignatureFieldScorer;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.plugin.score.stats.SlowScoreTracer;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.search.lookup.SearchLookup;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public abstract class ScoreLeafFactory implements ScoreScript.LeafFactory {
+
+    /**
+     * How the script score is combined with the score of the wrapped query, selected by the {@code combine} param.
+     * Without the param the script returns its own score but still reads the query score, which replaces the
+     * script score once the cost budget is used up.
+     */
+    public enum Combine {
+        /**
+         * Only the script score, the wrapped query is not asked for scores. Documents over the cost budget score 0.
+         */
+        REPLACE {
+            @Override
+            double combine(double rawScore, double score) {
+                return score;
+            }
+        },
+        MULTIPLY {
+            @Override
+            double combine(double rawScore, double score) {
+                return rawScore * score;
+            }
+        },
+        SUM {
+            @Override
+            double combine(double rawScore, double score) {
+                return rawScore + score;
+            }
+        },
+        MAX {
+            @Override
+            double combine(double rawScore, double score) {
+                return Math.max(rawScore, score);
+            }
+        };
+
+        abstract double combine(double rawScore, double score);
+
+        public static Combine fromString(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown combine [" + value + "]");
+            }
+        }
+    }
+
     protected final Map<String, Object> params;
     protected final SearchLookup lookup;
-    protected final List<String> fields;
+    protected final ScoreField[] fields;
     protected final String query;
+    protected final FieldValueReader.ReadMode readMode;
+    /**
+     * 与原查询评分的组合方式，未指定时为null
+     */
+    protected final Combine combine;
+    protected final ExpertScripts scripts;
+    protected final ScriptStats stats;
+    /**
+     * 本次分片请求的开销预算，由各leaf共享
+     */
+    protected final CostBudget.Request budget;
+    /**
+     * 算法截断文本的长度，-1表示不截断
+     */
+    private final int maxTextLength;
+    private final String scriptName;
+    private final String index;
 
     public ScoreLeafFactory(
-            Map<String, Object> params, SearchLookup lookup) {
+            String scriptName, Map<String, Object> params, SearchLookup lookup, ExpertScripts scripts) {
+        this(scriptName, params, lookup, scripts, -1);
+    }
+
+    /**
+     * @param maxTextLength the algorithm only scores this many leading chars of a value, -1 for the whole value
+     */
+    protected ScoreLeafFactory(
+            String scriptName, Map<String, Object> params, SearchLookup lookup, ExpertScripts scripts,
+            int maxTextLength) {
         if (params.containsKey("field") == false) {
             throw new IllegalArgumentException(
                 "Missing parameter [field]");
@@ -26,15 +109,164 @@ public abstract class ScoreLeafFactory implements ScoreScript.LeafFactory {
 
         this.params = params;
         this.lookup = lookup;
-        fields = (List<String>) params.get("field");
+        this.scripts = scripts;
+        this.stats = scripts.stats(scriptName);
+        stats.onFactory();
+        this.budget = scripts.costBudget().newRequest(stats);
+        this.scriptName = scriptName;
+        this.maxTextLength = maxTextLength;
+        this.index = lookup.doc().mapperService() == null ? "_na_" : lookup.doc().mapperService().index().getName();
         query = params.get("query").toString();
+        readMode = params.containsKey("read_mode")
+            ? FieldValueReader.ReadMode.fromString(params.get("read_mode").toString())
+            : FieldValueReader.ReadMode.AUTO;
+        combine = params.containsKey("combine") ? Combine.fromString(params.get("combine").toString()) : null;
+        List<String> fieldWeights = (List<String>) params.get("field");
+        fields = new ScoreField[fieldWeights.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = ScoreField.parse(fieldWeights.get(i), lookup.doc().mapperService(), readMode, maxTextLength);
+        }
+    }
+
+    /**
+     * Creates the per-leaf state of the scoring algorithm, called once per leaf.
+     */
+    protected abstract TextScorer newTextScorer();
+
+    /**
+     * The query signature checked against the {@code expert_signature} subfields of the scored fields, {@code null}
+     * when the algorithm cannot be bounded by common characters.
+     */
+    protected SignatureFieldScorer.Prefilter prefilter() {
+        return null;
+    }
+
+    /**
+     * The scope in which the scorer of one field of the leaf records slow evaluations.
+     */
+    protected SlowScoreTracer.Scope traceScope(LeafReaderContext context, int field) {
+        ShardId shardId = ShardUtils.extractShardId(context.reader());
+        return scripts.tracer().scope(scriptName, index, shardId == null ? -1 : shardId.id(), fields[field].name(),
+            query, context.docBase);
+    }
+
+    /**
+     * Creates the scorer of one field of the leaf. The default reads the field as text and scores it with
+     * {@code textScorer}, once per distinct value of a keyword field and checking the signature of the field first
+     * when it has one; factories override this to
+     * score from index-time structures instead.
+     */
+    protected FieldScorer newFieldScorer(LeafReaderContext context, int field, SourceFieldsLoader source,
+                                         TextScorer textScorer) throws IOException {
+        SlowScoreTracer.Scope trace = traceScope(context, field);
+        FieldScorer text = FieldScorer.text(FieldValueReader.create(context, source, fields[field], readMode, stats,
+            scripts.textArenaCache(), maxTextLength), textScorer, stats, trace);
+        // 优先读取的doc values字段有值时，相同的值只评分一次
+        String ordinalField = fields[field].normalizedField() != null
+            ? fields[field].normalizedField() : fields[field].docValuesField();
+        if (ordinalField != null) {
+            text = OrdinalMemoFieldScorer.wrap(context.reader(), ordinalField, text, stats);
+        }
+        SignatureFieldScorer.Prefilter prefilter = fields[field].signatureField() == null ? null : prefilter();
+        if (prefilter == null) {
+            return text;
+        }
+        return new SignatureFieldScorer(context.reader(), fields[field].signatureField(), prefilter, text, stats);
+    }
+
+    /**
+     * Opens the field scorers of the leaf, sharing one fresh {@link TextScorer} between them. May be called from
+     * several threads, each with its own leaf.
+     */
+    public LeafScorer newLeafScorer(LeafReaderContext context) throws IOException {
+        // 每个LeafScorer使用自己的loader，不同leaf可以在不同线程中评分
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            names[i] = fields[i].name();
+        }
+        SourceFieldsLoader source = new SourceFieldsLoader(context.reader(), names);
+        TextScorer textScorer = newTextScorer();
+        if (budget != CostBudget.UNLIMITED) {
+            textScorer = TextScorer.charged(textScorer, budget);
+        }
+        FieldScorer[] scorers = new FieldScorer[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            scorers[i] = newFieldScorer(context, i, source, textScorer);
+        }
+        return new LeafScorer(fields, scorers, stats, budget);
+    }
+
+    /**
+     * Identifies the scores computed by this factory: the same script type with equal params scores a doc the same.
+     */
+    protected Object cacheKey() {
+        if (params.containsKey("combine")) {
+            // 缓存的是组合前的评分，不同组合方式可以共用
+            Map<String, Object> scoreParams = new HashMap<>(params);
+            scoreParams.remove("combine");
+            return Arrays.asList(getClass().getName(), scoreParams);
+        }
+        return Arrays.asList(getClass().getName(), params);
     }
 
     @Override
     public boolean needs_score() {
-        return true;  // Return true if the script needs the score
+        // replace时不读取原查询的评分，原查询可以按不评分的方式执行
+        return combine != Combine.REPLACE;
     }
 
     @Override
-    public abstract ScoreScript newInstance(LeafReaderContext context);
+    public ScoreScript newInstance(LeafReaderContext context) throws IOException {
+        ScoreCache scoreCache = scripts.scoreCache();
+        ScoreCache.Scores cached = scoreCache == null ? null : scoreCache.scores(context, cacheKey());
+        return new ScoreScript(params, lookup, context) {
+            int currentDocid = -1;
+            // 全部命中缓存时不需要打开字段
+            LeafScorer scorer;
+
+            @Override
+            public void setDocument(int docid) {
+                currentDocid = docid;
+            }
+
+            @Override
+            public double execute() {
+                //获取原来的评分，不需要时不读取
+                double rawScore = combine == Combine.REPLACE ? 0.0 : this.get_score();
+                long start = System.nanoTime();
+                try {
+                    return score(rawScore);
+                } finally {
+                    stats.onExecute(System.nanoTime() - start);
+                }
+            }
+
+            private double score(double rawScore) {
+                if (cached != null) {
+                    float score = cached.get(currentDocid);
+                    if (Float.isNaN(score) == false) {
+                        return combine == null ? score : combine.combine(rawScore, score);
+                    }
+                }
+                try {
+                    if (scorer == null) {
+                        scorer = newLeafScorer(context);
+                    }
+                    double score = scorer.score(currentDocid);
+                    if (score == LeafScorer.DEGRADED) {
+                        // 超出预算，使用原来的评分(replace时为0)，不写入缓存
+                        return rawScore;
+                    }
+                    if (cached != null) {
+                        // 与命中缓存时的返回值保持一致
+                        cached.set(currentDocid, (float) score);
+                        score = (float) score;
+                    }
+                    return combine == null ? score : combine.combine(rawScore, score);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
 }
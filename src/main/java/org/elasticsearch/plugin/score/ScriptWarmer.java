@@ -0,0 +1,175 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs every algorithm over a built-in synthetic corpus when the node starts, so the scoring paths are compiled
+ * by the JIT before the node serves searches. Plugin services start before the node joins the cluster, so a node
+ * with {@link #ENABLED_SETTING} only takes traffic once warmed. Disabled by default.
+ */
+public class ScriptWarmer extends AbstractLifecycleComponent {
+    private static final Logger logger = LogManager.getLogger(ScriptWarmer.class);
+
+    public static final Setting<Boolean> ENABLED_SETTING =
+        Setting.boolSetting("expert_scripts.warmup.enabled", false, Setting.Property.NodeScope);
+    public static final Setting<Integer> DOCS_SETTING =
+        Setting.intSetting("expert_scripts.warmup.docs", 10000, 1, Setting.Property.NodeScope);
+
+    /**
+     * 语料的文档数和每个文档的最大长度
+     */
+    private static final int CORPUS_DOCS = 256;
+    private static final int MAX_TEXT_LENGTH = 160;
+    /**
+     * 与真实数据接近的字符分布：中文、英文单词、数字和标点
+     */
+    private static final String CJK = "有重复字符串哈哈的测试误差小评分插件搜索引擎文档查询分词匹配长度上海北京中国公司服务";
+    private static final String[] WORDS = {"elastic", "search", "score", "plugin", "expert", "match", "query", "term"};
+    private static final String PUNCTUATION = " ,.-/()";
+
+    private final ExpertScripts scripts;
+    private final boolean enabled;
+    private final int docs;
+
+    @Inject
+    public ScriptWarmer(Settings settings, ExpertScripts scripts) {
+        super(settings);
+        this.scripts = scripts;
+        this.enabled = ENABLED_SETTING.get(settings);
+        this.docs = DOCS_SETTING.get(settings);
+    }
+
+    @Override
+    protected void doStart() {
+        if (enabled == false) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            long scored = warmup(docs);
+            long nanos = System.nanoTime() - start;
+            scripts.onWarmedUp(nanos);
+            logger.info("warmed up expert scripts with [{}] docs in [{}]", scored, TimeValue.timeValueNanos(nanos));
+        } catch (IOException | RuntimeException e) {
+            // 预热失败不影响节点启动，只是首批请求较慢
+            logger.warn("failed to warm up expert scripts", e);
+        }
+    }
+
+    /**
+     * 每个算法至少评分docsPerScript个文档，逐个评分和按块评分各占一半
+     *
+     * @return 评分的文档总数
+     */
+    static long warmup(int docsPerScript) throws IOException {
+        // 独立的实例，预热不计入节点的统计和缓存
+        ExpertScripts scripts = new ExpertScripts(
+            Settings.builder().put(ExpertScripts.QUERY_CACHE_SIZE_SETTING.getKey(), 0).build(), null, null);
+        Random random = new Random(0);
+        List<String> queries = new ArrayList<>();
+        for (int length : new int[] {2, 4, 8, 16, 32, 96, 200}) {
+            // 覆盖位并行(不超过64)、逐字符(不超过128)和未预编译的模式串
+            queries.add(text(random, length));
+        }
+        long scored = 0;
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                for (int i = 0; i < CORPUS_DOCS; i++) {
+                    XContentBuilder source = XContentFactory.jsonBuilder().startObject()
+                        .field("title", text(random, random.nextInt(MAX_TEXT_LENGTH / 4)))
+                        .field("body", text(random, random.nextInt(MAX_TEXT_LENGTH)))
+                        .endObject();
+                    Document doc = new Document();
+                    doc.add(new StoredField("_source", BytesReference.bytes(source).toBytesRef()));
+                    writer.addDocument(doc);
+                }
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                SearchLookup lookup = new SearchLookup(null, fieldType -> null, new String[0]);
+                int[] block = new int[CORPUS_DOCS];
+                float[] scores = new float[CORPUS_DOCS];
+                for (int i = 0; i < block.length; i++) {
+                    block[i] = i;
+                }
+                for (String scriptName : ExpertScripts.scriptNames()) {
+                    long count = 0;
+                    while (count < docsPerScript) {
+                        for (String query : queries) {
+                            Map<String, Object> params = new HashMap<>();
+                            params.put("field", Arrays.asList("title^2", "body"));
+                            params.put("query", query);
+                            ScoreLeafFactory factory = scripts.newLeafFactory(scriptName, params, lookup);
+                            for (LeafReaderContext leaf : reader.leaves()) {
+                                LeafScorer scorer = factory.newLeafScorer(leaf);
+                                int maxDoc = leaf.reader().maxDoc();
+                                if ((count / maxDoc) % 2 == 0) {
+                                    for (int doc = 0; doc < maxDoc; doc++) {
+                                        scorer.score(doc);
+                                    }
+                                } else {
+                                    scorer.score(block, maxDoc, scores);
+                                }
+                                count += maxDoc;
+                            }
+                        }
+                    }
+                    scored += count;
+                }
+            }
+        }
+        return scored;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                text.append(CJK.charAt(random.nextInt(CJK.length())));
+            } else if (kind < 8) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                text.append(random.nextBoolean() ? word : word.toUpperCase(Locale.ROOT));
+            } else if (kind < 9) {
+                text.append(random.nextInt(1000));
+            } else {
+                text.append(PUNCTUATION.charAt(random.nextInt(PUNCTUATION.length())));
+            }
+        }
+        return text.substring(0, length);
+    }
+
+    @Override
+    protected void doStop() {
+    }
+
+    @Override
+    protected void doClose() {
+    }
+}
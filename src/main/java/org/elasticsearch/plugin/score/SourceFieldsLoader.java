@@ -0,0 +1,269 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.mapper.SourceFieldMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the scored fields of a document from its {@code _source} without building the source map: the stored
+ * {@code _source} bytes are read with a visitor that stops after them, and a streaming parser walks the keys,
+ * descending only into the objects on the path of a scored field, skipping the values of other keys and stopping
+ * once every scored field was found.
+ * <p>
+ * A field {@code meta.title} matches the top level key {@code meta.title} as well as the key {@code title} of the
+ * object {@code meta}, whichever comes first in the source, and likewise for the dots of longer paths. Values are the same as
+ * {@code String.valueOf(sourceLookup.get(field))} for a top level key and as
+ * {@code String.valueOf(sourceLookup.extractValue(field))} for an object path, arrays of objects on the path collect
+ * the values of their elements. Not thread safe, each {@link LeafScorer} has its own loader.
+ */
+public final class SourceFieldsLoader {
+    private final LeafReader reader;
+    /**
+     * 字段名 -> 下标
+     */
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final String[] values;
+    private final boolean[] found;
+    /**
+     * 顶层对象，子节点为评分字段路径上的key
+     */
+    private final Node root = new Node();
+    private final SourceVisitor visitor = new SourceVisitor();
+    private int docId = -1;
+    /**
+     * 当前文档还未找到的字段数
+     */
+    private int remaining;
+
+    public SourceFieldsLoader(LeafReader reader, String... fields) {
+        this.reader = reader;
+        for (String field : fields) {
+            if (slots.containsKey(field)) {
+                continue;
+            }
+            int slot = slots.size();
+            slots.put(field, slot);
+            insert(root, field, slot);
+        }
+        this.values = new String[slots.size()];
+        this.found = new boolean[slots.size()];
+    }
+
+    /**
+     * 路径的每种拆分都可能出现在源中：{@code a.b.c} 可以是顶层key，也可以是对象 {@code a} 下的 {@code b.c} 或
+     * {@code a.b} 下的 {@code c} 等
+     */
+    private static void insert(Node node, String path, int slot) {
+        for (int end = path.indexOf('.'); ; end = path.indexOf('.', end + 1)) {
+            Node child = node.child(end < 0 ? path : path.substring(0, end));
+            child.add(slot, path);
+            if (end < 0) {
+                child.slot = slot;
+                return;
+            }
+            insert(child, path.substring(end + 1), slot);
+        }
+    }
+
+    /**
+     * @return the slot of a field passed to the constructor, used to read its value
+     */
+    public int slot(String field) {
+        Integer slot = slots.get(field);
+        if (slot == null) {
+            throw new IllegalArgumentException("Field [" + field + "] is not loaded");
+        }
+        return slot;
+    }
+
+    /**
+     * @return the value of the field in the slot as text, {@code null} when the document has no such key
+     */
+    public String value(int docId, int slot) throws IOException {
+        if (docId != this.docId) {
+            load(docId);
+        }
+        return found[slot] ? values[slot] : null;
+    }
+
+    private void load(int docId) throws IOException {
+        this.docId = -1;
+        Arrays.fill(values, null);
+        Arrays.fill(found, false);
+        visitor.source = null;
+        reader.document(docId, visitor);
+        if (visitor.source != null) {
+            parse(visitor.source);
+        }
+        this.docId = docId;
+    }
+
+    private void parse(byte[] source) throws IOException {
+        // 兼容压缩存储的_source，解压后识别xcontent类型
+        BytesReference bytes = CompressorFactory.uncompressIfNeeded(new BytesArray(source));
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+            LoggingDeprecationHandler.INSTANCE, bytes, xContentType(bytes))) {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                return;
+            }
+            remaining = values.length;
+            parseObject(parser, root, false);
+        }
+    }
+
+    /**
+     * 6.x 存储的_source不带内容类型，SourceLookup 同样按字节头识别；识别接口都已标记废弃但没有替代，只在这里压制告警
+     */
+    @SuppressWarnings("deprecation")
+    private static XContentType xContentType(BytesReference bytes) {
+        return XContentHelper.xContentType(bytes);
+    }
+
+    /**
+     * 流式读取对象的key，只进入评分字段路径上的对象，其余的值只扫描不物化。返回时字段都已找到或对象已读完
+     *
+     * @param nested 是否在顶层对象之下，嵌套路径的值为null时与 extractValue 一致视为不存在
+     */
+    private void parseObject(XContentParser parser, Node node, boolean nested) throws IOException {
+        while (remaining > 0 && parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String key = parser.currentName();
+            Node child = node.children.get(key);
+            XContentParser.Token token = parser.nextToken();
+            if (child == null || resolved(child)) {
+                parser.skipChildren();
+            } else if (token == XContentParser.Token.START_OBJECT && child.children.isEmpty() == false
+                && (child.slot < 0 || found[child.slot])) {
+                parseObject(parser, child, true);
+            } else {
+                // 字段的值，或路径上的数组和标量：物化后按路径取值
+                Object value = value(parser, token);
+                if (child.slot >= 0) {
+                    set(child.slot, value, nested);
+                }
+                extract(child, key, value);
+            }
+        }
+    }
+
+    /**
+     * 按 extractValue 的规则从物化的值中取出 {@code node} 之下的字段
+     */
+    private void extract(Node node, String key, Object value) {
+        if (node.children.isEmpty()) {
+            return;
+        }
+        Map<String, Object> object = Collections.singletonMap(key, value);
+        for (int i = 0; i < node.slots.size(); i++) {
+            int slot = node.slots.get(i);
+            if (slot != node.slot && found[slot] == false) {
+                set(slot, XContentMapValues.extractValue(node.paths.get(i), object), true);
+            }
+        }
+    }
+
+    private void set(int slot, Object value, boolean nested) {
+        if (found[slot] || (nested && value == null)) {
+            return;
+        }
+        values[slot] = String.valueOf(value);
+        found[slot] = true;
+        remaining--;
+    }
+
+    /**
+     * @return whether every field at or below the node was found
+     */
+    private boolean resolved(Node node) {
+        for (int i = 0; i < node.slots.size(); i++) {
+            if (found[node.slots.get(i)] == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 与 SourceLookup 解析为Map时的取值一致
+     */
+    private static Object value(XContentParser parser, XContentParser.Token token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return parser.map();
+            case START_ARRAY:
+                return parser.list();
+            case VALUE_STRING:
+                return parser.text();
+            case VALUE_NUMBER:
+                return parser.numberValue();
+            case VALUE_BOOLEAN:
+                return parser.booleanValue();
+            case VALUE_EMBEDDED_OBJECT:
+                return parser.binaryValue();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 评分字段路径上的一个key
+     */
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        /**
+         * 以该key结尾的字段，没有时为-1
+         */
+        private int slot = -1;
+        /**
+         * 该key及其下所有字段的下标，以及从该key开始的路径
+         */
+        private final List<Integer> slots = new ArrayList<>();
+        private final List<String> paths = new ArrayList<>();
+
+        Node child(String key) {
+            return children.computeIfAbsent(key, k -> new Node());
+        }
+
+        void add(int slot, String path) {
+            slots.add(slot);
+            paths.add(path);
+        }
+    }
+
+    /**
+     * 只读取_source，读到后停止
+     */
+    private static final class SourceVisitor extends StoredFieldVisitor {
+        private byte[] source;
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (source != null) {
+                return Status.STOP;
+            }
+            return SourceFieldMapper.NAME.equals(fieldInfo.name) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            source = value;
+        }
+    }
+}
@@ -1,60 +1,120 @@
 package org.elasticsearch.plugin.score;
 
-import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.plugin.score.impl.CharSignature;
 import org.elasticsearch.plugin.score.impl.TermScore;
-import org.elasticsearch.script.ScoreScript;
-import org.elasticsearch.search.lookup.LeafDocLookup;
+import org.elasticsearch.plugin.score.mapper.SignatureFieldScorer;
+import org.elasticsearch.plugin.score.mapper.TermSequenceFieldMapper;
+import org.elasticsearch.plugin.score.mapper.TermSequenceScorer;
 import org.elasticsearch.search.lookup.SearchLookup;
-import org.elasticsearch.search.lookup.SourceLookup;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 public class TermScoreFactory extends ScoreLeafFactory {
+    public static final String NAME = "term_score";
+
     private final TermScore.TermsMetaInfo queryMetaInfo;
+    /**
+     * 默认分词器每个term至少一个字符，可以按字符数估计分值上界；其他分词器(如ngram)的term数可能多于字符数
+     */
+    private final boolean boundedByLength;
+    /**
+     * 各评分字段对应的 expert_terms 子字段，没有时为null
+     */
+    private final String[] sequenceFields;
 
-    protected TermScoreFactory(Map<String, Object> params, SearchLookup lookup) {
-        super(params, lookup);
-        this.queryMetaInfo = TermScore.TermsMetaInfo.parseQuery(query);
+    protected TermScoreFactory(Map<String, Object> params, SearchLookup lookup, ExpertScripts scripts) {
+        super(NAME, params, lookup, scripts);
+        String analyzerName = params.containsKey("analyzer")
+            ? params.get("analyzer").toString() : TermScore.DEFAULT_ANALYZER_NAME;
+        Analyzer analyzer = analyzer(analyzerName, lookup);
+        // 同名分词器在不同索引中可能不同，索引的分词器按索引区分；key不引用分词器，删除索引时清除对应的缓存
+        List<Object> key = analyzer == TermScore.DEFAULT_ANALYZER
+            ? Arrays.asList(NAME, query, analyzerName)
+            : Arrays.asList(NAME, query, analyzerName, lookup.doc().mapperService().index());
+        this.queryMetaInfo = scripts.compiledQuery(key, () -> TermScore.TermsMetaInfo.parseQuery(query, analyzer));
+        this.boundedByLength = analyzer == TermScore.DEFAULT_ANALYZER;
+        this.sequenceFields = new String[fields.length];
+        if (readMode != FieldValueReader.ReadMode.SOURCE) {
+            for (int i = 0; i < fields.length; i++) {
+                sequenceFields[i] = sequenceField(lookup.doc().mapperService(), fields[i].name(), analyzerName);
+            }
+        }
     }
 
-    @Override
-    public ScoreScript newInstance(LeafReaderContext context) {
-        LeafReader reader = context.reader();
-        SourceLookup source = lookup.getLeafSearchLookup(context).source();
-        LeafDocLookup doc = lookup.getLeafSearchLookup(context).doc();
-        return new ScoreScript(params, lookup, context) {
-            int currentDocid = -1;
+    /**
+     * 分词器取自索引的analysis配置，通过 analyzer 参数指定，默认为standard
+     */
+    private static Analyzer analyzer(String name, SearchLookup lookup) {
+        if (TermScore.DEFAULT_ANALYZER_NAME.equals(name)) {
+            return TermScore.DEFAULT_ANALYZER;
+        }
+        Analyzer analyzer = lookup.doc().mapperService().getIndexAnalyzers().get(name);
+        if (analyzer == null) {
+            throw new IllegalArgumentException("Unknown analyzer [" + name + "]");
+        }
+        return analyzer;
+    }
+
+    /**
+     * 查找字段下使用相同分词器的 expert_terms 子字段
+     */
+    private static String sequenceField(MapperService mapperService, String field, String analyzerName) {
+        if (mapperService == null) {
+            return null;
+        }
+        for (String name : mapperService.simpleMatchToFullName(field + ".*")) {
+            MappedFieldType fieldType = mapperService.fullName(name);
+            if (fieldType instanceof TermSequenceFieldMapper.TermSequenceFieldType
+                && ((TermSequenceFieldMapper.TermSequenceFieldType) fieldType).analyzerName().equals(analyzerName)) {
+                return name;
+            }
+        }
+        return null;
+    }
 
+    @Override
+    protected TextScorer newTextScorer() {
+        TermScore.Matcher matcher = queryMetaInfo.matcher();
+        return new TextScorer() {
             @Override
-            public void setDocument(int docid) {
-                currentDocid = docid;
+            public double score(char[] text, int length) {
+                return matcher.score(text, length);
             }
 
             @Override
-            public double execute() {
-                //获取原来的评分
-                double rawScore = this.get_score();
-                final double[] maxScore = {0.0};
-                fields.forEach(fieldWeight -> {
-                    String[] split = fieldWeight.split("\\^");
-                    String field = split[0];
-                    double weight = split.length == 2 ? Double.parseDouble(split[1]) : 1;
-                    source.setSegmentAndDocument(context, currentDocid);
-                    String value = "";
-                    if (source.containsKey(field)) {
-                        value = String.valueOf(source.get(field));
-                    } else {
-                        return;
-                    }
-                    double score = TermScore.scoreWrapper(value, queryMetaInfo);
-                    score = score * weight;
-                    if (score > maxScore[0]) {
-                        maxScore[0] = score;
-                    }
-                });
-                return maxScore[0];
+            public double maxScore(int length) {
+                return boundedByLength ? queryMetaInfo.maxScore(length) : Double.POSITIVE_INFINITY;
             }
         };
     }
+
+    /**
+     * 只有默认分词器保证term是文本的子串；相邻term之间可能隔着分隔符，公共字符对不能限制phase长度
+     */
+    @Override
+    protected SignatureFieldScorer.Prefilter prefilter() {
+        if (boundedByLength == false) {
+            return null;
+        }
+        return new SignatureFieldScorer.Prefilter(queryMetaInfo.unigramSignature(), CharSignature.ALL,
+            (length, maxPhraseLength) -> queryMetaInfo.maxScore(length));
+    }
+
+    @Override
+    protected FieldScorer newFieldScorer(LeafReaderContext context, int field, SourceFieldsLoader source,
+                                         TextScorer textScorer) throws IOException {
+        FieldScorer text = super.newFieldScorer(context, field, source, textScorer);
+        if (sequenceFields[field] == null) {
+            return text;
+        }
+        return new TermSequenceScorer(context.reader(), sequenceFields[field], queryMetaInfo,
+            queryMetaInfo.matcher(), text, budget, stats, traceScope(context, field));
+    }
 }
@@ -0,0 +1,41 @@
+package org.elasticsearch.plugin.score;
+
+/**
+ * Scores the text of one field against the request's query.
+ * Instances are created per leaf and only used by one thread, so they may keep scratch buffers between calls.
+ */
+public interface TextScorer {
+
+    /**
+     * @param text   the lowercased field value, only the first {@code length} chars are valid
+     * @param length the number of chars of the value
+     * @return the unweighted score of the value
+     */
+    double score(char[] text, int length);
+
+    /**
+     * An upper bound of {@link #score(char[], int)} over all values of {@code length} chars, used to skip docs that
+     * cannot compete. {@link Double#POSITIVE_INFINITY} when the algorithm has no known bound.
+     */
+    default double maxScore(int length) {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Charges the length of every scored value to {@code budget}.
+     */
+    static TextScorer charged(TextScorer textScorer, CostBudget.Request budget) {
+        return new TextScorer() {
+            @Override
+            public double score(char[] text, int length) {
+                budget.charge(length);
+                return textScorer.score(text, length);
+            }
+
+            @Override
+            public double maxScore(int length) {
+                return textScorer.maxScore(length);
+            }
+        };
+    }
+}
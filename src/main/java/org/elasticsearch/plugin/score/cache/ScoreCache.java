@@ -0,0 +1,195 @@
+package org.elasticsearch.plugin.score.cache;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level cache of the scores of a leaf, keyed by the segment core, the script type and its params.
+ * Segments are immutable so the score of a doc never changes for the same query; entries are dropped when
+ * the segment core is closed and their memory is accounted against the fielddata circuit breaker.
+ * Each cached leaf takes {@code 4 * maxDoc} bytes on its first query, so the cache only pays off for queries that
+ * repeat and is disabled by default.
+ */
+public final class ScoreCache implements RemovalListener<ScoreCache.Key, ScoreCache.Scores>, IndexReader.ClosedListener {
+    private static final Logger logger = LogManager.getLogger(ScoreCache.class);
+
+    public static final Setting<ByteSizeValue> SIZE_SETTING =
+        Setting.memorySizeSetting("expert_scripts.score_cache.size", "0b", Setting.Property.NodeScope);
+
+    /**
+     * float[]的对象头和长度
+     */
+    private static final long ARRAY_OVERHEAD = 16;
+
+    private final Cache<Key, Scores> cache;
+    /**
+     * segment core -> 该segment的缓存key，segment关闭时按此清理
+     */
+    private final Map<IndexReader.CacheKey, Set<Key>> keysByCore = new ConcurrentHashMap<>();
+    private volatile CircuitBreaker breaker;
+
+    public ScoreCache(Settings settings) {
+        long maxWeight = SIZE_SETTING.get(settings).getBytes();
+        if (maxWeight <= 0) {
+            cache = null;
+        } else {
+            cache = CacheBuilder.<Key, Scores>builder()
+                .setMaximumWeight(maxWeight)
+                .weigher((key, scores) -> scores.ramBytesUsed())
+                .removalListener(this)
+                .build();
+        }
+    }
+
+    /**
+     * Set once the node's breaker service is available, scores are cached without accounting until then.
+     */
+    void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * @param query identifies the script type and its params, must implement equals and hashCode
+     * @return the scores of the docs of the leaf, {@code null} when the leaf can't be cached
+     */
+    public Scores scores(LeafReaderContext context, Object query) {
+        if (cache == null) {
+            return null;
+        }
+        IndexReader.CacheHelper cacheHelper = context.reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+        IndexReader.CacheKey core = cacheHelper.getKey();
+        Key key = new Key(core, query);
+        try {
+            return cache.computeIfAbsent(key, k -> {
+                int maxDoc = context.reader().maxDoc();
+                CircuitBreaker breaker = this.breaker;
+                if (breaker != null) {
+                    // 先计入breaker再分配
+                    breaker.addEstimateBytesAndMaybeBreak(Scores.ramBytesUsed(maxDoc), "expert_scripts score cache");
+                }
+                Scores scores = new Scores(maxDoc);
+                scores.breaker = breaker;
+                // 分配成功后才登记，breaker拒绝时不留下key和关闭监听
+                keysByCore.computeIfAbsent(core, c -> {
+                    cacheHelper.addClosedListener(this);
+                    return ConcurrentHashMap.newKeySet();
+                }).add(k);
+                return scores;
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CircuitBreakingException) {
+                // 内存不足时不缓存，照常评分
+                logger.debug("not caching scores of segment", e.getCause());
+                return null;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void onClose(IndexReader.CacheKey core) {
+        Set<Key> keys = keysByCore.remove(core);
+        if (keys != null) {
+            for (Key key : keys) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<Key, Scores> notification) {
+        Key key = notification.getKey();
+        Set<Key> keys = keysByCore.get(key.core);
+        if (keys != null) {
+            keys.remove(key);
+        }
+        Scores scores = notification.getValue();
+        if (scores.breaker != null) {
+            scores.breaker.addWithoutBreaking(-scores.ramBytesUsed());
+        }
+    }
+
+    /**
+     * Scores of the docs of one leaf, filled lazily as docs are scored.
+     * Concurrent writers of the same doc write the same value so no synchronization is needed.
+     */
+    public static final class Scores {
+        private final float[] values;
+        /**
+         * 计入内存的breaker，未计入时为null
+         */
+        private CircuitBreaker breaker;
+
+        private Scores(int maxDoc) {
+            values = new float[maxDoc];
+            Arrays.fill(values, Float.NaN);
+        }
+
+        /**
+         * @return the cached score, {@code NaN} when the doc was not scored yet
+         */
+        public float get(int docId) {
+            return values[docId];
+        }
+
+        public void set(int docId, float score) {
+            values[docId] = score;
+        }
+
+        long ramBytesUsed() {
+            return ramBytesUsed(values.length);
+        }
+
+        static long ramBytesUsed(int maxDoc) {
+            return ARRAY_OVERHEAD + (long) maxDoc * Float.BYTES;
+        }
+    }
+
+    static final class Key {
+        private final IndexReader.CacheKey core;
+        private final Object query;
+
+        Key(IndexReader.CacheKey core, Object query) {
+            this.core = core;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return core == key.core && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(core, query);
+        }
+    }
+}
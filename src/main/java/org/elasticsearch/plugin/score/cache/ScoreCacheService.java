@@ -0,0 +1,34 @@
+package org.elasticsearch.plugin.score.cache;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+
+/**
+ * Hands the fielddata circuit breaker to the {@link ScoreCache} and the {@link TextArenaCache}, the breaker service
+ * is only reachable through injection.
+ */
+public class ScoreCacheService extends AbstractLifecycleComponent {
+
+    @Inject
+    public ScoreCacheService(Settings settings, ScoreCache scoreCache, TextArenaCache textArenaCache,
+                             CircuitBreakerService breakerService) {
+        super(settings);
+        scoreCache.setCircuitBreaker(breakerService.getBreaker(CircuitBreaker.FIELDDATA));
+        textArenaCache.setCircuitBreaker(breakerService.getBreaker(CircuitBreaker.FIELDDATA));
+    }
+
+    @Override
+    protected void doStart() {
+    }
+
+    @Override
+    protected void doStop() {
+    }
+
+    @Override
+    protected void doClose() {
+    }
+}
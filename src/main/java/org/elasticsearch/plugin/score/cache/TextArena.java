@@ -0,0 +1,107 @@
+package org.elasticsearch.plugin.score.cache;
+
+import org.apache.lucene.util.CharsRefBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The lowercased, truncated text of one field for every doc of a segment, stored off heap: the chars of all docs
+ * in one direct buffer and the end offset of each doc in another. Immutable once built, shared by any number of
+ * threads.
+ */
+public final class TextArena {
+    /**
+     * 单个direct buffer最多存放的字符数
+     */
+    static final int MAX_CHARS = Integer.MAX_VALUE / Character.BYTES;
+
+    private final CharBuffer chars;
+    /**
+     * ends[doc]：该文档文本的结束位置，文档没有该字段时为 ~结束位置
+     */
+    private final IntBuffer ends;
+
+    private TextArena(CharBuffer chars, IntBuffer ends) {
+        this.chars = chars;
+        this.ends = ends;
+    }
+
+    /**
+     * Copies the text of the doc into {@code into}, reusing its buffer.
+     *
+     * @return {@code false} when the doc has no value for the field
+     */
+    public boolean read(int docId, CharsRefBuilder into) {
+        int end = ends.get(docId);
+        if (end < 0) {
+            return false;
+        }
+        int start = docId == 0 ? 0 : decode(ends.get(docId - 1));
+        int length = end - start;
+        into.grow(length);
+        // 绝对位置读取，不修改共享buffer的position
+        CharBuffer view = chars.duplicate();
+        view.position(start);
+        view.get(into.chars(), 0, length);
+        into.setLength(length);
+        return true;
+    }
+
+    private static int decode(int end) {
+        return end < 0 ? ~end : end;
+    }
+
+    /**
+     * Off heap bytes held by the arena.
+     */
+    public long ramBytesUsed() {
+        return ramBytesUsed(ends.capacity(), chars.capacity());
+    }
+
+    /**
+     * Off heap bytes of an arena of {@code maxDoc} docs whose texts have {@code length} chars in total.
+     */
+    static long ramBytesUsed(int maxDoc, int length) {
+        return (long) length * Character.BYTES + (long) maxDoc * Integer.BYTES;
+    }
+
+    /**
+     * Appends the texts of the docs of a segment in doc id order into buffers of the final size, the total length
+     * of the texts must be known up front.
+     */
+    static final class Builder {
+        private final IntBuffer ends;
+        private final CharBuffer chars;
+        private int length;
+
+        Builder(int maxDoc, int length) {
+            this.ends = ByteBuffer.allocateDirect(maxDoc * Integer.BYTES).asIntBuffer();
+            this.chars = ByteBuffer.allocateDirect(length * Character.BYTES).asCharBuffer();
+        }
+
+        /**
+         * @param text the text of the next doc, {@code null} when it has no value
+         */
+        void add(CharSequence text) {
+            if (text != null) {
+                if (text.length() > chars.remaining()) {
+                    throw new IllegalStateException("text exceeds the length of the arena");
+                }
+                chars.put(text.toString());
+                length += text.length();
+                ends.put(length);
+            } else {
+                ends.put(~length);
+            }
+        }
+
+        TextArena build() {
+            if (chars.hasRemaining() || ends.hasRemaining()) {
+                throw new IllegalStateException("arena is not full");
+            }
+            return new TextArena(chars, ends);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.elasticsearch.plugin.score.cache;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.plugin.score.SourceFieldsLoader;
+import org.elasticsearch.plugin.score.ingest.NormalizeProcessor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level cache of {@link TextArena}s, keyed by the segment core, the field and the truncation length, for fields
+ * that are otherwise read from {@code _source}. An arena is built the first time a segment is scored for the field
+ * and serves the later queries of every algorithm with the same truncation. Arenas are dropped when the segment
+ * core is closed. Their off heap memory is reserved on the fielddata circuit breaker before it is allocated, and the
+ * reservation is only released once the direct buffers are garbage collected, which is when the JVM frees the memory:
+ * an arena dropped from the cache may still be read by running searches. Disabled by default.
+ */
+public final class TextArenaCache implements RemovalListener<TextArenaCache.Key, TextArena>,
+    IndexReader.ClosedListener {
+    private static final Logger logger = LogManager.getLogger(TextArenaCache.class);
+
+    public static final Setting<ByteSizeValue> SIZE_SETTING =
+        Setting.memorySizeSetting("expert_scripts.text_arena.size", "0b", Setting.Property.NodeScope);
+    /**
+     * Segments with more docs are not cached: the arena is built on the search thread of the first query, which
+     * reads the source of every doc of the segment twice.
+     */
+    public static final Setting<Integer> MAX_SEGMENT_DOCS_SETTING = Setting.intSetting(
+        "expert_scripts.text_arena.max_segment_docs", 1_000_000, 1, Setting.Property.NodeScope);
+
+    private final Cache<Key, TextArena> cache;
+    private final int maxSegmentDocs;
+    /**
+     * segment core -> 该segment的缓存key，segment关闭时按此清理
+     */
+    private final Map<IndexReader.CacheKey, Set<Key>> keysByCore = new ConcurrentHashMap<>();
+    /**
+     * 因内存不足或文本过长未能缓存的key，segment关闭前不再重复构建
+     */
+    private final Set<Key> rejected = ConcurrentHashMap.newKeySet();
+    private volatile CircuitBreaker breaker;
+    /**
+     * 已计入breaker的arena，arena被回收(direct buffer随之释放)后才从breaker中减去
+     */
+    private final Set<Reservation> reservations = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<TextArena> collected = new ReferenceQueue<>();
+
+    public TextArenaCache(Settings settings) {
+        this.maxSegmentDocs = Math.min(MAX_SEGMENT_DOCS_SETTING.get(settings), TextArena.MAX_CHARS / Integer.BYTES);
+        long maxWeight = SIZE_SETTING.get(settings).getBytes();
+        if (maxWeight <= 0) {
+            cache = null;
+        } else {
+            cache = CacheBuilder.<Key, TextArena>builder()
+                .setMaximumWeight(maxWeight)
+                .weigher((key, arena) -> arena.ramBytesUsed())
+                .removalListener(this)
+                .build();
+        }
+    }
+
+    /**
+     * Set once the node's breaker service is available, arenas are built without accounting until then.
+     */
+    void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Returns the arena of the field for the leaf, extracting the text of every doc of the segment on a miss. The
+     * extraction runs on the calling search thread, concurrent searches needing the same arena wait for it.
+     *
+     * @param maxLength the truncation length of the text, -1 for the whole value
+     * @return the arena, {@code null} when the leaf can't be cached
+     */
+    public TextArena arena(LeafReaderContext context, String field, int maxLength) {
+        if (cache == null || context.reader().maxDoc() > maxSegmentDocs) {
+            return null;
+        }
+        IndexReader.CacheHelper cacheHelper = context.reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+        IndexReader.CacheKey core = cacheHelper.getKey();
+        Key key = new Key(core, field, maxLength);
+        if (rejected.contains(key)) {
+            return null;
+        }
+        // 先减去已回收的arena，再为新的arena计入breaker
+        releaseCollected();
+        try {
+            return cache.computeIfAbsent(key, k -> {
+                TextArena arena = build(context, field, maxLength, breaker);
+                track(cacheHelper, k);
+                return arena;
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CircuitBreakingException || e.getCause() instanceof TooLargeException) {
+                // 内存不足或文本过长时不缓存，照常从_source读取
+                logger.debug("not caching text of segment", e.getCause());
+                rejected.add(key);
+                track(cacheHelper, key);
+                return null;
+            }
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw (UncheckedIOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void track(IndexReader.CacheHelper cacheHelper, Key key) {
+        keysByCore.computeIfAbsent(key.core, c -> {
+            cacheHelper.addClosedListener(this);
+            return ConcurrentHashMap.newKeySet();
+        }).add(key);
+    }
+
+    /**
+     * Reads the source of the segment twice: the first pass only sums the length of the texts, so that the exact
+     * size is reserved on the breaker before any off heap memory is allocated and the second pass fills buffers of
+     * the final size.
+     */
+    private TextArena build(LeafReaderContext context, String field, int maxLength, CircuitBreaker breaker) {
+        int maxDoc = context.reader().maxDoc();
+        SourceFieldsLoader loader = new SourceFieldsLoader(context.reader(), field);
+        try {
+            long length = 0;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                String value = loader.value(doc, 0);
+                if (value != null) {
+                    // 归一化只转小写和截断，长度不需要转换即可得到
+                    length += maxLength > 0 ? Math.min(value.length(), maxLength) : value.length();
+                }
+            }
+            if (length > TextArena.MAX_CHARS) {
+                throw new TooLargeException(field);
+            }
+            long bytes = TextArena.ramBytesUsed(maxDoc, (int) length);
+            if (breaker != null) {
+                breaker.addEstimateBytesAndMaybeBreak(bytes, "expert_scripts text arena");
+            }
+            boolean success = false;
+            try {
+                TextArena.Builder builder = new TextArena.Builder(maxDoc, (int) length);
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    String value = loader.value(doc, 0);
+                    // 与写入时归一化一致：转小写后截断
+                    builder.add(value == null ? null : NormalizeProcessor.normalize(value, maxLength));
+                }
+                TextArena arena = builder.build();
+                if (breaker != null) {
+                    reservations.add(new Reservation(arena, collected, breaker, bytes));
+                }
+                success = true;
+                return arena;
+            } finally {
+                if (success == false && breaker != null) {
+                    breaker.addWithoutBreaking(-bytes);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Releases the breaker reservation of the arenas whose buffers were collected since the last call.
+     */
+    void releaseCollected() {
+        for (Reference<? extends TextArena> ref = collected.poll(); ref != null; ref = collected.poll()) {
+            Reservation reservation = (Reservation) ref;
+            if (reservations.remove(reservation)) {
+                reservation.breaker.addWithoutBreaking(-reservation.bytes);
+            }
+        }
+    }
+
+    /**
+     * @return the number of arenas in the cache
+     */
+    public int count() {
+        return cache == null ? 0 : cache.count();
+    }
+
+    /**
+     * @return the off heap bytes held by the cached arenas
+     */
+    public long sizeInBytes() {
+        return cache == null ? 0 : cache.weight();
+    }
+
+    @Override
+    public void onClose(IndexReader.CacheKey core) {
+        Set<Key> keys = keysByCore.remove(core);
+        if (keys != null) {
+            for (Key key : keys) {
+                rejected.remove(key);
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<Key, TextArena> notification) {
+        Key key = notification.getKey();
+        Set<Key> keys = keysByCore.get(key.core);
+        if (keys != null) {
+            keys.remove(key);
+        }
+        // 正在执行的搜索可能仍在读取该arena，breaker在其被回收后才减去
+        releaseCollected();
+    }
+
+    /**
+     * 一个arena在breaker中计入的字节，arena不可达时进入队列
+     */
+    private static final class Reservation extends PhantomReference<TextArena> {
+        private final CircuitBreaker breaker;
+        private final long bytes;
+
+        Reservation(TextArena arena, ReferenceQueue<TextArena> queue, CircuitBreaker breaker, long bytes) {
+            super(arena, queue);
+            this.breaker = breaker;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class TooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(String field) {
+            super("text of field [" + field + "] does not fit in one arena");
+        }
+    }
+
+    static final class Key {
+        private final IndexReader.CacheKey core;
+        private final String field;
+        private final int maxLength;
+
+        Key(IndexReader.CacheKey core, String field, int maxLength) {
+            this.core = core;
+            this.field = field;
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return core == key.core && maxLength == key.maxLength && field.equals(key.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(core, field, maxLength);
+        }
+    }
+}
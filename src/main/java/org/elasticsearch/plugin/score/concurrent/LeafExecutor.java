@@ -0,0 +1,189 @@
+package org.elasticsearch.plugin.score.concurrent;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Scores several leaves of one shard request concurrently on the bounded {@value #NAME} thread pool.
+ * A request asks for a parallelism, capped by {@link #MAX_PARALLELISM_SETTING}; until the node has started, or with
+ * a parallelism of 1, everything runs on the calling search thread. The calling thread always works through the tasks
+ * itself as well: a fork the pool rejects is not retried, and forks still queued behind other requests once the
+ * calling thread has started every task are cancelled instead of waited for, so a busy node degrades to sequential
+ * scoring rather than adding queueing latency to searches.
+ */
+public final class LeafExecutor {
+    public static final String NAME = "expert_scripts";
+
+    public static final Setting<Integer> MAX_PARALLELISM_SETTING = Setting.intSetting("expert_scripts.max_parallelism",
+        4, 1, Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * 未启动节点(如ExpertScripts.UNCACHED)时为null，在调用线程内执行
+     */
+    private volatile ExecutorService executor;
+    private volatile int maxParallelism;
+
+    public LeafExecutor(Settings settings) {
+        setMaxParallelism(MAX_PARALLELISM_SETTING.get(settings));
+    }
+
+    /**
+     * The fixed {@value #NAME} pool, one thread per processor by default, configured by the
+     * {@code thread_pool.expert_scripts.*} settings.
+     */
+    public static ExecutorBuilder<?> executorBuilder(Settings settings) {
+        return new FixedExecutorBuilder(settings, NAME, EsExecutors.numberOfProcessors(settings), 1000,
+            "thread_pool." + NAME);
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setMaxParallelism(int maxParallelism) {
+        this.maxParallelism = maxParallelism;
+    }
+
+    /**
+     * @return the number of leaves a request asking for {@code requested} may score at once, including the calling
+     * thread
+     */
+    public int parallelism(int requested) {
+        return executor == null ? 1 : Math.max(1, Math.min(requested, maxParallelism));
+    }
+
+    /**
+     * Starts {@code task} on the pool.
+     *
+     * @return {@code null} when the pool is not available or rejected the task, the caller then runs it itself
+     */
+    public <T> Future<T> fork(Callable<T> task) {
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            return null;
+        }
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs all tasks with at most {@code parallelism} of them at once, the calling thread included, and returns their
+     * results in order. No task is started after {@code cancelled} turns {@code true} or a task failed, and all
+     * forked work has stopped when this returns.
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks, int parallelism, BooleanSupplier cancelled) throws IOException {
+        Object[] results = new Object[tasks.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        Callable<Void> worker = () -> {
+            try {
+                for (int i = next.getAndIncrement(); i < results.length && failed.get() == false;
+                     i = next.getAndIncrement()) {
+                    checkCancelled(cancelled);
+                    results[i] = tasks.get(i).call();
+                }
+                return null;
+            } catch (Exception e) {
+                failed.set(true);
+                throw e;
+            }
+        };
+        int forks = Math.min(parallelism(parallelism), tasks.size()) - 1;
+        List<Future<Void>> futures = new ArrayList<>(Math.max(0, forks));
+        List<AtomicBoolean> started = new ArrayList<>(Math.max(0, forks));
+        for (int i = 0; i < forks; i++) {
+            // 分出去的任务开始执行时先占位，调用线程据此判断是否还在排队
+            AtomicBoolean claimed = new AtomicBoolean();
+            Future<Void> future = fork(() -> claimed.compareAndSet(false, true) ? worker.call() : null);
+            if (future == null) {
+                break;
+            }
+            futures.add(future);
+            started.add(claimed);
+        }
+        Exception failure = null;
+        try {
+            worker.call();
+        } catch (Exception e) {
+            failure = e;
+        }
+        // 调用线程已取完所有任务：仍在排队的分叉直接取消，不排在其他请求后面等待；
+        // 已开始的分叉等待其结束，返回后不再有线程访问本次请求的leaf
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Void> future = futures.get(i);
+            if (started.get(i).compareAndSet(false, true)) {
+                future.cancel(false);
+                continue;
+            }
+            try {
+                get(future);
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Arrays.asList(results);
+        return list;
+    }
+
+    /**
+     * Waits for a forked task, rethrowing its failure as thrown by the task.
+     */
+    public static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for leaf scoring", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw rethrow((Exception) cause);
+            }
+            throw (Error) cause;
+        }
+    }
+
+    public static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new TaskCancelledException("cancelled");
+        }
+    }
+
+    private static IOException rethrow(Exception e) {
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,51 @@
+package org.elasticsearch.plugin.score.concurrent;
+
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Exposes the cancellation of the shard request whose query phase runs on the current thread, so that scoring
+ * forked to the {@link LeafExecutor} can stop when the search task is cancelled. Registered on every index.
+ */
+public final class SearchCancellation implements SearchOperationListener {
+    private static final BooleanSupplier NEVER = () -> false;
+
+    /**
+     * 查询阶段在同一个search线程内执行，开始时记录当前请求，结束或失败时清除
+     */
+    private static final ThreadLocal<SearchContext> CURRENT = new ThreadLocal<>();
+
+    @Override
+    public void onPreQueryPhase(SearchContext searchContext) {
+        CURRENT.set(searchContext);
+    }
+
+    @Override
+    public void onFailedQueryPhase(SearchContext searchContext) {
+        CURRENT.remove();
+    }
+
+    @Override
+    public void onQueryPhase(SearchContext searchContext, long tookInNanos) {
+        CURRENT.remove();
+    }
+
+    /**
+     * Must be called on the search thread, the returned check may then be used from any thread.
+     *
+     * @return whether the current search was cancelled, never {@code true} outside of a query phase
+     */
+    public static BooleanSupplier current() {
+        SearchContext context = CURRENT.get();
+        return context == null ? NEVER : context::isCancelled;
+    }
+
+    /**
+     * @return the search context of the query phase running on the current thread, {@code null} outside of one
+     */
+    public static SearchContext context() {
+        return CURRENT.get();
+    }
+}
@@ -0,0 +1,70 @@
+package org.elasticsearch.plugin.score.impl;
+
+/**
+ * 文本的字符签名：把字符和相邻字符对哈希到位图中，用于在读取文本前判断文本与query是否有公共字符/子串。
+ * 位图只会多报不会漏报：文本中出现的字符对应的位一定为1，所以两个签名没有公共位时文本与query一定没有公共字符
+ */
+public final class CharSignature {
+    /**
+     * 字符对签名的位数，高16位存放文本长度
+     */
+    private static final int BIGRAM_BITS = 48;
+    private static final long BIGRAM_MASK = (1L << BIGRAM_BITS) - 1;
+    /**
+     * 长度达到该值时不再记录长度
+     */
+    public static final int MAX_LENGTH = 0xFFFF;
+    /**
+     * 无法计算签名(如多值字段)时使用，与任何签名都有公共位，长度未知
+     */
+    public static final long ALL = -1L;
+
+    private CharSignature() {
+    }
+
+    /**
+     * @return 文本的字符签名，64位
+     */
+    public static long unigrams(char[] text, int length) {
+        long signature = 0L;
+        for (int i = 0; i < length; i++) {
+            signature |= 1L << (mix(text[i]) >>> 58);
+        }
+        return signature;
+    }
+
+    /**
+     * @return 文本相邻字符对的签名，48位
+     */
+    public static long bigrams(char[] text, int length) {
+        long signature = 0L;
+        for (int i = 1; i < length; i++) {
+            signature |= 1L << ((mix(text[i - 1] << 16 | text[i]) >>> 32) % BIGRAM_BITS);
+        }
+        return signature;
+    }
+
+    /**
+     * 把字符对签名和文本长度存入一个long
+     */
+    public static long packBigrams(long bigrams, int length) {
+        return (bigrams & BIGRAM_MASK) | ((long) Math.min(length, MAX_LENGTH) << BIGRAM_BITS);
+    }
+
+    public static long bigramsOf(long packed) {
+        return packed & BIGRAM_MASK;
+    }
+
+    /**
+     * @return 文本长度，未知时为-1
+     */
+    public static int lengthOf(long packed) {
+        int length = (int) (packed >>> BIGRAM_BITS);
+        return length == MAX_LENGTH ? -1 : length;
+    }
+
+    private static long mix(int value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
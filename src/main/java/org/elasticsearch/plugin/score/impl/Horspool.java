@@ -1,5 +1,8 @@
 package org.elasticsearch.plugin.score.impl;
 
+import com.carrotsearch.hppc.CharLongHashMap;
+
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -11,6 +14,26 @@ import java.util.Map;
  */
 public class Horspool {
 
+    /**
+     * 待匹配文本超过该长度时截断
+     */
+    public static final int MAX_TEXT_LENGTH = 30;
+
+    /**
+     * (long) Math.pow(10, n)，n >= 19 时溢出为 Long.MAX_VALUE
+     */
+    private static final long[] POW10 = new long[20];
+
+    static {
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = (long) Math.pow(10, i);
+        }
+    }
+
+    static long pow10(int n) {
+        return n < POW10.length ? POW10[n] : Long.MAX_VALUE;
+    }
+
     /**
      * @param text    待匹配文本
      * @param pattern 模式串
@@ -122,26 +145,324 @@ public class Horspool {
     }
 
     public static long calHorspoolScoreWrapper(String text, String pattern) {
+        return calHorspoolScoreWrapper(text, pattern, MAX_TEXT_LENGTH);
+    }
+
+    public static long calHorspoolScoreWrapper(String text, String pattern, int maxTextLength) {
         if (empty(text) || empty(pattern)) {
             return 0L;
         }
-        // 超过30截断只取前30位匹配
-        if (text.length() > 30) {
-            text = text.substring(0, 30);
+        // 超过maxTextLength(默认30)截断只取前maxTextLength位匹配
+        if (text.length() > maxTextLength) {
+            text = text.substring(0, maxTextLength);
         }
 
         return calHorspoolScore(text, pattern);
     }
 
-    public static void main(String[] args) {
-        String text = "测试新建";
+    /**
+     * 预编译的模式串，一次请求只编译一次，线程安全
+     * 为每个子串计算规范编号(内容相同的子串编号相同)，匹配时用编号代替substring+HashMap去重；
+     * 模式串不超过64个字符时再为每个字符编译位图，用位并行的方式代替逐个对齐位置的双重循环
+     */
+    public static final class Pattern {
+        /**
+         * 超过该长度的模式串不预编译规范编号，回退到按字符串去重
+         */
+        private static final int MAX_COMPILED_LENGTH = 128;
+
+        private final String pattern;
+        private final char[] chars;
+        /**
+         * canonical[(len - 1) * m + start]：与 pattern[start, start + len) 内容相同的子串的最小起始下标
+         */
+        private final int[] canonical;
+        /**
+         * 字符 -> 该字符在模式串中出现位置的位图，模式串超过64个字符时为null
+         */
+        private final CharLongHashMap charMasks;
+        /**
+         * distinct[len - 1]：长度为len的不同子串个数，用于估计分值上界
+         */
+        private final int[] distinct;
+        /**
+         * 模式串中出现次数最多的字符的次数，文本每个字符最多与这么多个位置匹配
+         */
+        private final int maxCharFrequency;
+        /**
+         * 模式串的字符签名和字符对签名，见 {@link CharSignature}
+         */
+        private final long unigramSignature;
+        private final long bigramSignature;
 
-        String pattern = "测试";
-        print(text, pattern);
+        private Pattern(String pattern, char[] chars, int[] canonical, CharLongHashMap charMasks) {
+            this.pattern = pattern;
+            this.chars = chars;
+            this.canonical = canonical;
+            this.charMasks = charMasks;
+            int m = chars.length;
+            Map<Character, Integer> frequencies = new HashMap<>();
+            int maxCharFrequency = 0;
+            for (char c : chars) {
+                maxCharFrequency = Math.max(maxCharFrequency, frequencies.merge(c, 1, Integer::sum));
+            }
+            this.maxCharFrequency = maxCharFrequency;
+            this.unigramSignature = CharSignature.unigrams(chars, m);
+            this.bigramSignature = CharSignature.bigrams(chars, m);
+            this.distinct = new int[m];
+            for (int len = 1; len <= m; len++) {
+                if (canonical == null) {
+                    distinct[len - 1] = m - len + 1;
+                    continue;
+                }
+                for (int start = 0; start + len <= m; start++) {
+                    if (canonical[(len - 1) * m + start] == start) {
+                        distinct[len - 1]++;
+                    }
+                }
+            }
+        }
+
+        public static Pattern compile(String pattern) {
+            if (empty(pattern)) {
+                return new Pattern(null, new char[0], null, null);
+            }
+            pattern = pattern.toLowerCase();
+            char[] chars = pattern.toCharArray();
+            int m = chars.length;
+            if (m > MAX_COMPILED_LENGTH) {
+                return new Pattern(pattern, chars, null, null);
+            }
+            // lcp[i][j]：以i和j开头的两个后缀的最长公共前缀
+            int[][] lcp = new int[m + 1][m + 1];
+            for (int i = m - 1; i >= 0; i--) {
+                for (int j = m - 1; j >= 0; j--) {
+                    lcp[i][j] = chars[i] == chars[j] ? lcp[i + 1][j + 1] + 1 : 0;
+                }
+            }
+            int[] canonical = new int[m * m];
+            for (int start = 0; start < m; start++) {
+                // 起始下标从小到大，最先覆盖某个长度的就是该长度的最小起始下标
+                int covered = 0;
+                for (int other = 0; other <= start && covered < m - start; other++) {
+                    int common = lcp[other][start];
+                    for (int len = covered + 1; len <= common; len++) {
+                        canonical[(len - 1) * m + start] = other;
+                    }
+                    covered = Math.max(covered, common);
+                }
+            }
+            CharLongHashMap charMasks = null;
+            if (m <= Long.SIZE) {
+                charMasks = new CharLongHashMap(m);
+                for (int p = 0; p < m; p++) {
+                    charMasks.put(chars[p], charMasks.get(chars[p]) | (1L << p));
+                }
+            }
+            return new Pattern(pattern, chars, canonical, charMasks);
+        }
+
+        public boolean isEmpty() {
+            return chars.length == 0;
+        }
+
+        public long unigramSignature() {
+            return unigramSignature;
+        }
+
+        public long bigramSignature() {
+            return bigramSignature;
+        }
+
+        public int length() {
+            return chars.length;
+        }
+
+        /**
+         * 每个线程(每个leaf)各自创建，复用其中的去重表
+         *
+         * @param maxTextLength 待匹配文本超过该长度时截断
+         */
+        public Matcher matcher(int maxTextLength) {
+            return new Matcher(this, maxTextLength);
+        }
+
+        public Matcher matcher() {
+            return matcher(MAX_TEXT_LENGTH);
+        }
+
+        /**
+         * 长度为textLength的文本能得到的最大分值：每个匹配上的子串都是模式串和文本的公共子串，
+         * 长度为len的子串最多 min(模式串中长度为len的不同子串数, textLength - len + 1) 个；
+         * 匹配的格子数matchChars多于文本长度时最终分值会加上 2 * (matchChars - textLength)，
+         * 而matchChars不超过 textLength * maxCharFrequency
+         */
+        public double maxScore(int textLength) {
+            return maxScore(textLength, chars.length);
+        }
+
+        /**
+         * 匹配上的子串长度不超过maxSubstringLength时的最大分值，文本与模式串没有公共字符对时只能匹配单个字符
+         */
+        public double maxScore(int textLength, int maxSubstringLength) {
+            double bound = 0;
+            for (int len = 1; len <= Math.min(textLength, Math.min(chars.length, maxSubstringLength)); len++) {
+                bound += Math.min(distinct[len - 1], textLength - len + 1) * Math.pow(10, len);
+            }
+            if (bound == 0) {
+                return 0;
+            }
+            return bound + 2.0 * textLength * (maxCharFrequency - 1);
+        }
     }
 
-    public static void print(String text, String pattern) {
-        long score = Horspool.calHorspoolScoreWrapper(text, pattern);
-        System.out.println(pattern + ": " + score);
+    /**
+     * 非线程安全，复用去重表，稳定状态下评分不分配内存
+     */
+    public static final class Matcher {
+        private final Pattern pattern;
+        private final int maxTextLength;
+        /**
+         * 子串编号 -> 最近一次匹配到该子串时的轮次，等于当前轮次表示已计分
+         */
+        private final int[] seen;
+        private int round;
+        /**
+         * matches[t]：模式串中与text[t]相同的字符的位图
+         */
+        private long[] matches = new long[MAX_TEXT_LENGTH + 1];
+
+        private Matcher(Pattern pattern, int maxTextLength) {
+            this.pattern = pattern;
+            this.maxTextLength = maxTextLength;
+            this.seen = pattern.canonical == null ? null : new int[pattern.canonical.length];
+        }
+
+        /**
+         * 长度为length的文本截断后能得到的最大分值
+         */
+        public double maxScore(int length) {
+            return pattern.maxScore(Math.min(length, maxTextLength));
+        }
+
+        /**
+         * 长度为length的文本截断后，匹配上的子串长度不超过maxSubstringLength时的最大分值
+         */
+        public double maxScore(int length, int maxSubstringLength) {
+            return pattern.maxScore(Math.min(length, maxTextLength), maxSubstringLength);
+        }
+
+        /**
+         * 与 {@link #calHorspoolScoreWrapper(String, String, int)} 相同，text需已转小写
+         */
+        public long score(char[] text, int length) {
+            if (pattern.isEmpty() || blank(text, length)) {
+                return 0L;
+            }
+            int n = Math.min(length, maxTextLength);
+            if (seen == null) {
+                return calHorspoolScore(new String(text, 0, n), pattern.pattern);
+            }
+            if (++round == 0) {
+                Arrays.fill(seen, 0);
+                round = 1;
+            }
+            if (pattern.charMasks != null) {
+                return bitParallelScore(text, n);
+            }
+            return scalarScore(text, n);
+        }
+
+        /**
+         * 位并行实现：text[t]与pattern[p]相同即(p, t)匹配，模式串滑过文本时每个对齐位置就是一条 t - p 相同的对角线，
+         * 原实现在对角线上记录的连续匹配段就是这些对角线上的极大连续匹配段。
+         * 段在(p, t)结束当且仅当(p, t)匹配而(p + 1, t + 1)不匹配，即 matches[t] & ~(matches[t + 1] >>> 1)，
+         * 对每个结束位置沿对角线回溯得到段的长度，回溯的总步数等于匹配的格子数
+         */
+        private long bitParallelScore(char[] text, int n) {
+            if (matches.length < n + 1) {
+                matches = new long[n + 1];
+            }
+            int matchChars = 0;
+            for (int t = 0; t < n; t++) {
+                matches[t] = pattern.charMasks.get(text[t]);
+                matchChars += Long.bitCount(matches[t]);
+            }
+            matches[n] = 0L;
+
+            long score = 0L;
+            for (int t = 0; t < n; t++) {
+                long ends = matches[t] & ~(matches[t + 1] >>> 1);
+                while (ends != 0) {
+                    int end = Long.numberOfTrailingZeros(ends);
+                    ends &= ends - 1;
+                    int len = 1;
+                    while (len <= end && len <= t && (matches[t - len] & (1L << (end - len))) != 0) {
+                        len++;
+                    }
+                    score += mark(end - len + 1, len);
+                }
+            }
+            return Math.max(score / 2, score - (n - matchChars) * 2);
+        }
+
+        private long scalarScore(char[] text, int n) {
+            char[] p = pattern.chars;
+            int m = p.length;
+            long score = 0L;
+            int endFlag = (m - 1) + (n - 1);
+            int matchChars = 0;
+            for (int cusor = 0; cusor <= endFlag; cusor++) {
+                int startMatchIndex = 0;
+                int endMatchIndex = -1;
+                int times = 0;
+                for (int i = 0; i < m; i++) {
+                    int textIndex = cusor - i;
+                    if (textIndex < 0 || textIndex >= n) {
+                        continue;
+                    }
+                    if (text[textIndex] == p[m - i - 1]) {
+                        times = times + 1;
+                        matchChars = matchChars + 1;
+                        if (endMatchIndex == -1) {
+                            endMatchIndex = m - i - 1;
+                        }
+                        startMatchIndex = m - i - 1;
+                    } else {
+                        if (times > 0) {
+                            score += mark(startMatchIndex, endMatchIndex - startMatchIndex + 1);
+                            endMatchIndex = -1;
+                        }
+                        times = 0;
+                    }
+                }
+                if (endMatchIndex >= 0) {
+                    score += mark(startMatchIndex, endMatchIndex - startMatchIndex + 1);
+                }
+            }
+            return Math.max(score / 2, score - (n - matchChars) * 2);
+        }
+
+        /**
+         * 记录匹配上的子串，首次出现时返回其分值
+         */
+        private long mark(int start, int len) {
+            int m = pattern.chars.length;
+            int id = (len - 1) * m + pattern.canonical[(len - 1) * m + start];
+            if (seen[id] == round) {
+                return 0L;
+            }
+            seen[id] = round;
+            return pow10(len);
+        }
+
+        private static boolean blank(char[] text, int length) {
+            for (int i = 0; i < length; i++) {
+                if (text[i] > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
@@ -1,6 +1,9 @@
 package org.elasticsearch.plugin.score.impl;
 
+import com.carrotsearch.hppc.CharIntHashMap;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,14 +12,6 @@ public class MatchScore {
 
     private static final int weight = 4;
 
-    public static void main(String[] args) {
-        String query = "有重复字符串哈哈哈的重复测试串";
-        String value = "测试字符小的误差重复测试";
-
-        MatchsMetaInfo matchsMetaInfo = MatchsMetaInfo.parseQuery(query);
-        System.out.println(scoreWrapper(value, matchsMetaInfo));
-    }
-
     /**
      * 模式串： query
      * 匹配串: value
@@ -40,67 +35,166 @@ public class MatchScore {
     }
 
     private static long score(String value, MatchsMetaInfo matchsMetaInfo) {
-        long matchScore = 0;
         // 将value串转换为index表
         char[] values = value.toCharArray();
-        for (int j = 0; j < values.length; ) {
-            List<Integer> queryIndexs = matchsMetaInfo.getCharIndexs().get(values[j]);
-            if (queryIndexs == null) {//query串没有出现
-                j++;
-                continue;
-            } else {
-                int maxLength = 0;
-                int maxUnmatch = -1;
-//                String maxLengthPhase = "";
-                for (int i = 0; i < queryIndexs.size(); i++) {
-                    int queryIndex = queryIndexs.get(i);
-                    int firstUnmatch = findFirstUnmatch(j, values, queryIndex, matchsMetaInfo.getQueryChars());
-                    int length = firstUnmatch - j;
-//                    String phase = value.substring(j, firstUnmatch);
-                    // 打印每个phase
-//                    System.out.println(j + " " + length + " " + phase);
-                    if (length > maxLength) {
-                        maxLength = length;
-//                        maxLengthPhase = phase;
-                    }
-                    if (firstUnmatch > maxUnmatch) {
-                        maxUnmatch = firstUnmatch;
-                    }
+        return score(values, values.length, matchsMetaInfo);
+    }
+
+    /**
+     * 与 {@link #scoreWrapper(String, MatchsMetaInfo)} 相同，values需已转小写，只使用前valueLength个字符
+     * <p>
+     * 原实现在每个位置j取query中以values[j]开头的最长子串，计分后跳到该子串之后继续。
+     * query的后缀自动机恰好识别query的所有子串，从初始状态沿values转移直到没有转移，
+     * 走过的长度就是该位置的最长子串。每个字符最多被读两次(一次成功转移，一次失配后作为下一段的开头)，
+     * 复杂度为O(len(value))
+     */
+    public static long score(char[] values, int valueLength, MatchsMetaInfo matchsMetaInfo) {
+        long matchScore = 0;
+        int[] transitions = matchsMetaInfo.transitions;
+        int alphabetSize = matchsMetaInfo.alphabetSize;
+        for (int j = 0; j < valueLength; ) {
+            int state = 0;
+            int maxLength = 0;
+            while (j + maxLength < valueLength) {
+                int c = matchsMetaInfo.alphabetIndex(values[j + maxLength]);
+                if (c < 0) {
+                    break;
+                }
+                int next = transitions[state * alphabetSize + c];
+                if (next < 0) {
+                    break;
                 }
-                // 打印最长的phase
-//                System.out.println("==max" + " " + maxLengthPhase);
-                matchScore += Math.pow(weight, maxLength);
-                j = maxUnmatch;
+                state = next;
+                maxLength++;
+            }
+            if (maxLength == 0) {//query串没有出现
+                j++;
                 continue;
             }
+            matchScore += Math.pow(weight, maxLength);
+            j += maxLength;
         }
         return matchScore;
     }
 
-    private static int findFirstUnmatch(int valueIndex, char[] valueChars, int queryindex, char[] queryChars) {
-        for (; valueIndex < valueChars.length && queryindex < queryChars.length; ) {
-            if (valueChars[valueIndex] == queryChars[queryindex]) {
-                valueIndex++;
-                queryindex++;
-            } else {
-                return valueIndex;
-            }
-        }
-        if (valueIndex == valueChars.length)
-            return valueChars.length;
-        else {
-            return valueIndex;
+    /**
+     * 总长不超过length、每段长度不超过maxPhrase的若干段能得到的最大分值 ∑weight^len。
+     * weight^len是凸函数，总长固定时段越长分值越大，所以上界是尽量多的maxPhrase长的段加上余下的一段
+     */
+    public static double maxPhraseScore(int length, int maxPhrase, int weight) {
+        if (length <= 0 || maxPhrase <= 0) {
+            return 0;
         }
+        int rest = length % maxPhrase;
+        return (length / maxPhrase) * Math.pow(weight, maxPhrase) + (rest == 0 ? 0 : Math.pow(weight, rest));
     }
 
-
     public static class MatchsMetaInfo {
         private final char[] queryChars;
         private final Map<Character, List<Integer>> charIndexs;
+        /**
+         * query中的字符 -> 字符编号，编号从0开始连续
+         */
+        private final CharIntHashMap alphabet;
+        private final int alphabetSize;
+        /**
+         * 后缀自动机的转移表：transitions[state * alphabetSize + 字符编号]，没有转移时为-1，初始状态为0
+         */
+        private final int[] transitions;
+        /**
+         * query的字符签名和字符对签名，见 {@link CharSignature}
+         */
+        private final long unigramSignature;
+        private final long bigramSignature;
 
         private MatchsMetaInfo(char[] queryChars, Map<Character, List<Integer>> charIndexs) {
             this.queryChars = queryChars;
             this.charIndexs = charIndexs;
+            this.alphabet = new CharIntHashMap(charIndexs.size());
+            for (char c : queryChars) {
+                if (alphabet.containsKey(c) == false) {
+                    alphabet.put(c, alphabet.size());
+                }
+            }
+            this.alphabetSize = Math.max(1, alphabet.size());
+            this.transitions = buildSuffixAutomaton(queryChars, alphabet, alphabetSize);
+            this.unigramSignature = CharSignature.unigrams(queryChars, queryChars.length);
+            this.bigramSignature = CharSignature.bigrams(queryChars, queryChars.length);
+        }
+
+        /**
+         * 在线构造后缀自动机，状态数不超过 2 * len - 1，只保留转移表，后缀链接和长度在构造后丢弃
+         */
+        private static int[] buildSuffixAutomaton(char[] queryChars, CharIntHashMap alphabet, int alphabetSize) {
+            int maxStates = Math.max(1, 2 * queryChars.length);
+            int[] transitions = new int[maxStates * alphabetSize];
+            Arrays.fill(transitions, -1);
+            int[] link = new int[maxStates];
+            int[] length = new int[maxStates];
+            link[0] = -1;
+            int size = 1;
+            int last = 0;
+            for (char ch : queryChars) {
+                int c = alphabet.get(ch);
+                int cur = size++;
+                length[cur] = length[last] + 1;
+                int p = last;
+                while (p != -1 && transitions[p * alphabetSize + c] < 0) {
+                    transitions[p * alphabetSize + c] = cur;
+                    p = link[p];
+                }
+                if (p == -1) {
+                    link[cur] = 0;
+                } else {
+                    int q = transitions[p * alphabetSize + c];
+                    if (length[p] + 1 == length[q]) {
+                        link[cur] = q;
+                    } else {
+                        // 拆分状态q
+                        int clone = size++;
+                        length[clone] = length[p] + 1;
+                        link[clone] = link[q];
+                        System.arraycopy(transitions, q * alphabetSize, transitions, clone * alphabetSize, alphabetSize);
+                        while (p != -1 && transitions[p * alphabetSize + c] == q) {
+                            transitions[p * alphabetSize + c] = clone;
+                            p = link[p];
+                        }
+                        link[q] = clone;
+                        link[cur] = clone;
+                    }
+                }
+                last = cur;
+            }
+            return Arrays.copyOf(transitions, size * alphabetSize);
+        }
+
+        /**
+         * 长度为valueLength的文本能得到的最大分值，每段都是query的子串，长度不超过query的长度
+         */
+        public double maxScore(int valueLength) {
+            return maxScore(valueLength, queryChars.length);
+        }
+
+        /**
+         * 每段长度不超过maxPhraseLength时的最大分值，文本与query没有公共字符对时每段只有一个字符
+         */
+        public double maxScore(int valueLength, int maxPhraseLength) {
+            return maxPhraseScore(valueLength, Math.min(maxPhraseLength, queryChars.length), weight);
+        }
+
+        public long unigramSignature() {
+            return unigramSignature;
+        }
+
+        public long bigramSignature() {
+            return bigramSignature;
+        }
+
+        /**
+         * @return 字符编号，不在query中时为-1
+         */
+        private int alphabetIndex(char c) {
+            return alphabet.getOrDefault(c, -1);
         }
 
         public static final MatchsMetaInfo parseQuery(String query) {
@@ -1,28 +1,32 @@
 package org.elasticsearch.plugin.score.impl;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArrayMap;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
-import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TermScore {
     private static final int weight = 4;
 
-    public static void main(String[] args) {
-        String query = "asdas 100.00 有重复字符串哈哈哈的重复测试串";
-        String value = "asdas 100.00测试字符小的误差重复测试";
-        TermsMetaInfo queryMetaInfo = TermsMetaInfo.parseQuery(query);
-        System.out.println(scoreWrapper(value, queryMetaInfo));
-    }
+    /**
+     * 默认分词器，Analyzer按线程复用TokenStream，可在所有请求间共享
+     */
+    public static final Analyzer DEFAULT_ANALYZER = new StandardAnalyzer();
+
+    /**
+     * 未指定analyzer参数时使用的分词器名称，与索引中的分词器名称区分
+     */
+    public static final String DEFAULT_ANALYZER_NAME = "_expert_default";
 
     /**
      * 模式串： query
@@ -44,86 +48,145 @@ public class TermScore {
 
     public static long scoreWrapper(String value, TermsMetaInfo termsMetaInfo) {
         value = value.toLowerCase();
-        return score(value, termsMetaInfo);
+        char[] chars = value.toCharArray();
+        return termsMetaInfo.matcher().score(chars, chars.length);
     }
 
-    private static long score(String value, TermsMetaInfo queryMetaInfo) {
-        long termScore = 0;
-        // 将value串转换为index表
-
-        StringReader reader = new StringReader(value);
-        // 分词
-        Analyzer analyzer = new StandardAnalyzer();
-        TokenStream ts = analyzer.tokenStream("", reader);
-        CharTermAttribute term = ts.getAttribute(CharTermAttribute.class);
-        TypeAttribute type = ts.getAttribute(TypeAttribute.class);
-        OffsetAttribute offset = ts.getAttribute(OffsetAttribute.class);
-        // 遍历分词数据
-        List<String> terms = new ArrayList<>();
-        try {
-            ts.reset();
-            while (ts.incrementToken()) {
-                String termStr = term.toString();
-                terms.add(termStr);
+    /**
+     * 非线程安全，每个leaf一个，复用Reader和匹配状态
+     * <p>
+     * 不再物化value的term列表，而是边分词边匹配：
+     * active的第i位表示当前phase可以对齐到query的第i个term，
+     * 读入下一个term时 active = (active << 1) & mask(term)，
+     * 不为0则phase延长，为0则当前phase结束，计分后从该term重新开始。
+     * 结果与逐个起点调用findFirstUnmatch取最长phase一致
+     */
+    public static final class Matcher {
+        private final TermsMetaInfo metaInfo;
+        private final ReusableCharArrayReader reader = new ReusableCharArrayReader();
+        private final long[] active;
+        private final long[] next;
+        private long termScore;
+        private int phaseLength;
+
+        private Matcher(TermsMetaInfo metaInfo) {
+            this.metaInfo = metaInfo;
+            this.active = new long[metaInfo.words];
+            this.next = new long[metaInfo.words];
+        }
+
+        /**
+         * @param value 已转小写的文本，只使用前length个字符
+         */
+        public long score(char[] value, int length) {
+            if (metaInfo.terms.isEmpty()) {
+                return 0L;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            reader.close();
-            analyzer.close();
-        }
-
-        for (int j = 0; j < terms.size(); ) {
-            List<Integer> queryIndexs = queryMetaInfo.termIndexs.get(terms.get(j));
-            if (queryIndexs == null) {//query串没有出现
-                j++;
-                continue;
-            } else {
-                int maxLength = 0;
-                int maxUnmatch = -1;
-//                String maxLengthPhase = "";
-                for (int i = 0; i < queryIndexs.size(); i++) {
-                    int queryIndex = queryIndexs.get(i);
-                    int firstUnmatch = findFirstUnmatch(j, terms, queryIndex, queryMetaInfo.terms);
-                    int length = firstUnmatch - j;
-
-//                    String phase = "";
-//                    for (int k = j; k < firstUnmatch; k++) {
-//                        phase += terms.get(k) + "^";
-//                    }
-                    // 打印每个phase
-//                    System.out.println(j + " " + length + " " + phase);
-                    if (length > maxLength) {
-                        maxLength = length;
-//                        maxLengthPhase = phase;
-                    }
-                    if (firstUnmatch > maxUnmatch) {
-                        maxUnmatch = firstUnmatch;
-                    }
+            reader.reset(value, length);
+            begin();
+            try (TokenStream ts = metaInfo.analyzer.tokenStream("", reader)) {
+                CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+                ts.reset();
+                while (ts.incrementToken()) {
+                    accept(metaInfo.masks.get(term.buffer(), 0, term.length()));
                 }
-                // 打印最长的phase
-//                System.out.println("==max" + " " + maxLengthPhase);
-                termScore += Math.pow(weight, maxLength);
-                j = maxUnmatch;
-                continue;
+                ts.end();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return finish();
+        }
+
+        /**
+         * 开始匹配一个新的term序列
+         */
+        public void begin() {
+            termScore = 0;
+            phaseLength = 0;
+        }
+
+        /**
+         * 读入序列的下一个term
+         *
+         * @param mask 该term在query中出现位置的位图，不在query中时为null
+         */
+        public void accept(long[] mask) {
+            if (phaseLength > 0 && extend(mask)) {
+                phaseLength++;
+                return;
+            }
+            if (phaseLength > 0) {
+                termScore += Math.pow(weight, phaseLength);
+                phaseLength = 0;
+            }
+            if (mask != null) {//query串出现，开始新的phase
+                System.arraycopy(mask, 0, active, 0, active.length);
+                phaseLength = 1;
+            }
+        }
+
+        /**
+         * 结束当前序列并返回分值
+         */
+        public long finish() {
+            if (phaseLength > 0) {
+                termScore += Math.pow(weight, phaseLength);
+                phaseLength = 0;
+            }
+            return termScore;
+        }
+
+        /**
+         * active左移一位与mask求交，不为空时更新active
+         */
+        private boolean extend(long[] mask) {
+            if (mask == null) {
+                return false;
+            }
+            long any = 0;
+            long carry = 0;
+            for (int w = 0; w < active.length; w++) {
+                long shifted = (active[w] << 1) | carry;
+                carry = active[w] >>> 63;
+                next[w] = shifted & mask[w];
+                any |= next[w];
             }
+            if (any == 0) {
+                return false;
+            }
+            System.arraycopy(next, 0, active, 0, active.length);
+            return true;
         }
-        return termScore;
     }
 
-    private static int findFirstUnmatch(int valueIndex, List<String> valueTerms, int queryindex, List<String> queryTerms) {
-        for (; valueIndex < valueTerms.size() && queryindex < queryTerms.size(); ) {
-            if (valueTerms.get(valueIndex).equals(queryTerms.get(queryindex))) {
-                valueIndex++;
-                queryindex++;
-            } else {
-                return valueIndex;
+    /**
+     * 可重置的Reader，避免每个文档创建String和StringReader
+     */
+    private static final class ReusableCharArrayReader extends Reader {
+        private char[] chars;
+        private int length;
+        private int pos;
+
+        void reset(char[] chars, int length) {
+            this.chars = chars;
+            this.length = length;
+            this.pos = 0;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pos >= length) {
+                return -1;
             }
+            int n = Math.min(len, length - pos);
+            System.arraycopy(chars, pos, cbuf, off, n);
+            pos += n;
+            return n;
         }
-        if (valueIndex == valueTerms.size())
-            return valueTerms.size();
-        else {
-            return valueIndex;
+
+        @Override
+        public void close() {
+            chars = null;
         }
     }
 
@@ -131,47 +194,114 @@ public class TermScore {
     public static class TermsMetaInfo {
         protected final List<String> terms;
         protected final Map<String, List<Integer>> termIndexs;
+        private final Analyzer analyzer;
+        /**
+         * term -> 在query中出现位置的位图，可直接用分词的char[]查找
+         */
+        private final CharArrayMap<long[]> masks;
+        private final int words;
+        /**
+         * query各term的字符签名，见 {@link CharSignature}
+         */
+        private final long unigramSignature;
 
         public TermsMetaInfo(List<String> terms, Map<String, List<Integer>> termIndexs) {
+            this(terms, termIndexs, DEFAULT_ANALYZER);
+        }
+
+        public TermsMetaInfo(List<String> terms, Map<String, List<Integer>> termIndexs, Analyzer analyzer) {
             this.terms = terms;
             this.termIndexs = termIndexs;
+            this.analyzer = analyzer;
+            this.words = Math.max(1, (terms.size() + 63) / 64);
+            this.masks = new CharArrayMap<>(termIndexs.size(), false);
+            for (Map.Entry<String, List<Integer>> entry : termIndexs.entrySet()) {
+                long[] mask = new long[words];
+                for (int index : entry.getValue()) {
+                    mask[index >>> 6] |= 1L << index;
+                }
+                masks.put(entry.getKey(), mask);
+            }
+            long unigramSignature = 0L;
+            for (String term : termIndexs.keySet()) {
+                unigramSignature |= CharSignature.unigrams(term.toCharArray(), term.length());
+            }
+            this.unigramSignature = unigramSignature;
         }
 
         public static final TermsMetaInfo parseQuery(String query) {
+            return parseQuery(query, DEFAULT_ANALYZER);
+        }
+
+        /**
+         * @param analyzer 分词器，使用方负责关闭
+         */
+        public static final TermsMetaInfo parseQuery(String query, Analyzer analyzer) {
             query = query.toLowerCase();
             if (query.length() > 32) {
                 query = query.substring(0, 32);
             }
             // 计算query串中的位置信息
-            StringReader reader = new StringReader(query);
-            // 分词
-            Analyzer analyzer = new StandardAnalyzer();
-            TokenStream ts = analyzer.tokenStream("", reader);
-            CharTermAttribute term = ts.getAttribute(CharTermAttribute.class);
-            TypeAttribute type = ts.getAttribute(TypeAttribute.class);
-            OffsetAttribute offset = ts.getAttribute(OffsetAttribute.class);
-            // 遍历分词数据
             List<String> terms = new ArrayList<>();
             Map<String, List<Integer>> termIndexs = new HashMap<>(32);
-            try {
+            // 分词
+            try (TokenStream ts = analyzer.tokenStream("", query)) {
+                CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
                 ts.reset();
                 int index = 0;
                 while (ts.incrementToken()) {
-//                    System.out.println(offset.startOffset() + " - " + offset.endOffset() + " : " + term.toString() + " | " + type.type());
                     String termStr = term.toString();
                     terms.add(termStr);
                     termIndexs.computeIfAbsent(termStr, (cell) -> new ArrayList<>());
                     termIndexs.get(termStr).add(index);
                     index++;
                 }
+                ts.end();
             } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                reader.close();
-                analyzer.close();
+                throw new UncheckedIOException(e);
             }
 
-            return new TermsMetaInfo(terms, termIndexs);
+            return new TermsMetaInfo(terms, termIndexs, analyzer);
+        }
+
+        public boolean isEmpty() {
+            return terms.isEmpty();
+        }
+
+        /**
+         * 包含termCount个term的文本能得到的最大分值，每个phase最长为query的term数。
+         * 每个term至少一个字符，按文本评分时可以用字符数代替term数
+         */
+        public double maxScore(int termCount) {
+            return MatchScore.maxPhraseScore(termCount, terms.size(), weight);
+        }
+
+        /**
+         * 分词器只切分不改写字符时，与query有公共term的文本一定与该签名有公共位
+         */
+        public long unigramSignature() {
+            return unigramSignature;
+        }
+
+        /**
+         * @return query中去重后的term
+         */
+        public Set<String> distinctTerms() {
+            return termIndexs.keySet();
+        }
+
+        /**
+         * @return term在query中出现位置的位图，不在query中时为null
+         */
+        public long[] mask(CharSequence term) {
+            return masks.get(term);
+        }
+
+        /**
+         * 每个线程(每个leaf)各自创建
+         */
+        public Matcher matcher() {
+            return new Matcher(this);
         }
     }
 }
@@ -0,0 +1,123 @@
+package org.elasticsearch.plugin.score.ingest;
+
+import org.apache.lucene.analysis.CharacterUtils;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugin.score.impl.Horspool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a lowercased, truncated copy of each configured field next to it, so the score scripts can read the
+ * normalized text from doc values instead of lowercasing and truncating {@code _source} values on every hit.
+ * <p>
+ * The copy of {@code title} truncated to 30 chars is written to {@code title_expert_norm_30}, an untruncated copy
+ * ({@code max_length: -1}) to {@code title_expert_norm}. The target must be mapped as a keyword, or have the
+ * {@code .keyword} subfield of the default dynamic mapping. The values of a multi-valued field are normalized one by
+ * one into a list, like the values of its keyword doc values.
+ */
+public final class NormalizeProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "expert_normalize";
+
+    private static final String FIELD_SUFFIX = "_expert_norm";
+
+    private final List<String> fields;
+    private final int maxLength;
+    private final boolean ignoreMissing;
+
+    NormalizeProcessor(String tag, List<String> fields, int maxLength, boolean ignoreMissing) {
+        super(tag);
+        this.fields = fields;
+        this.maxLength = maxLength;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    /**
+     * @param maxLength 截断长度，小于等于0表示不截断
+     * @return 归一化字段名
+     */
+    public static String targetField(String field, int maxLength) {
+        return maxLength > 0 ? field + FIELD_SUFFIX + "_" + maxLength : field + FIELD_SUFFIX;
+    }
+
+    /**
+     * 与评分时的处理一致：按码点转小写，再按char截断
+     */
+    public static String normalize(String value, int maxLength) {
+        char[] chars = value.toCharArray();
+        int length = maxLength > 0 ? Math.min(chars.length, maxLength) : chars.length;
+        CharacterUtils.toLowerCase(chars, 0, length);
+        return new String(chars, 0, length);
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        for (String field : fields) {
+            Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+            if (value == null) {
+                if (ignoreMissing) {
+                    continue;
+                }
+                throw new IllegalArgumentException("field [" + field + "] is null, cannot normalize it");
+            }
+            document.setFieldValue(targetField(field, maxLength), normalizeValue(value));
+        }
+        return document;
+    }
+
+    /**
+     * 多值字段逐个归一化，与keyword doc values一样忽略null；非字符串值使用String.valueOf
+     */
+    private Object normalizeValue(Object value) {
+        if (value instanceof List == false) {
+            return normalize(String.valueOf(value), maxLength);
+        }
+        List<String> normalized = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            if (element != null) {
+                normalized.add(normalize(String.valueOf(element), maxLength));
+            }
+        }
+        return normalized;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        @Override
+        public NormalizeProcessor create(Map<String, Processor.Factory> registry, String tag,
+                                         Map<String, Object> config) {
+            Object field = ConfigurationUtils.readObject(TYPE, tag, config, "field");
+            List<String> fields;
+            if (field instanceof String) {
+                fields = Collections.singletonList((String) field);
+            } else if (field instanceof List && ((List<?>) field).isEmpty() == false) {
+                fields = new ArrayList<>();
+                for (Object element : (List<?>) field) {
+                    if (element instanceof String == false) {
+                        throw ConfigurationUtils.newConfigurationException(TYPE, tag, "field",
+                            "must be a string or a list of strings");
+                    }
+                    fields.add((String) element);
+                }
+            } else {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "field",
+                    "must be a string or a list of strings");
+            }
+            int maxLength = ConfigurationUtils.readIntProperty(TYPE, tag, config, "max_length",
+                Horspool.MAX_TEXT_LENGTH);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", true);
+            return new NormalizeProcessor(tag, fields, maxLength, ignoreMissing);
+        }
+    }
+}
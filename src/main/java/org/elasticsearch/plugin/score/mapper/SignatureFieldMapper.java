@@ -0,0 +1,160 @@
+package org.elasticsearch.plugin.score.mapper;
+
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.Version;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+import org.elasticsearch.plugin.score.impl.CharSignature;
+import org.elasticsearch.plugin.score.ingest.NormalizeProcessor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.mapper.TypeParsers.parseField;
+
+/**
+ * Stores a 128-bit character signature of a field so the score scripts can tell, before reading the value, that a
+ * document shares no character with the query or cannot score above the current threshold.
+ * <p>
+ * The signature of the lowercased value goes to two numeric doc values: the characters hashed into 64 bits under
+ * the field name, and the adjacent character pairs hashed into 48 bits together with the value length under
+ * {@code name#bigrams}. Documents with several values, or with a non-string value, get a signature that matches
+ * everything. Usually mapped as a multi-field: {@code "fields": {"sig": {"type": "expert_signature"}}}.
+ */
+public class SignatureFieldMapper extends FieldMapper {
+
+    public static final String CONTENT_TYPE = "expert_signature";
+
+    /**
+     * 存储字符对签名和长度的doc values字段名后缀
+     */
+    public static final String BIGRAMS_SUFFIX = "#bigrams";
+
+    public static class Defaults {
+        public static final MappedFieldType FIELD_TYPE = new SignatureFieldType();
+
+        static {
+            FIELD_TYPE.setIndexOptions(IndexOptions.NONE);
+            FIELD_TYPE.setHasDocValues(true);
+            FIELD_TYPE.freeze();
+        }
+    }
+
+    public static class Builder extends FieldMapper.Builder<Builder, SignatureFieldMapper> {
+
+        public Builder(String name) {
+            super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
+            builder = this;
+        }
+
+        @Override
+        protected boolean defaultDocValues(Version indexCreated) {
+            return true;
+        }
+
+        @Override
+        public SignatureFieldMapper build(BuilderContext context) {
+            setupFieldType(context);
+            if (fieldType.hasDocValues() == false) {
+                throw new MapperParsingException("[" + CONTENT_TYPE + "] field [" + name + "] requires doc_values");
+            }
+            return new SignatureFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
+                multiFieldsBuilder.build(this, context), copyTo);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+        @Override
+        public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext) {
+            Builder builder = new Builder(name);
+            parseField(builder, name, node, parserContext);
+            return builder;
+        }
+    }
+
+    public static final class SignatureFieldType extends MappedFieldType {
+
+        public SignatureFieldType() {
+        }
+
+        private SignatureFieldType(SignatureFieldType ref) {
+            super(ref);
+        }
+
+        @Override
+        public MappedFieldType clone() {
+            return new SignatureFieldType(this);
+        }
+
+        @Override
+        public String typeName() {
+            return CONTENT_TYPE;
+        }
+
+        @Override
+        public Query existsQuery(QueryShardContext context) {
+            return new DocValuesFieldExistsQuery(name());
+        }
+
+        @Override
+        public Query termQuery(Object value, QueryShardContext context) {
+            throw new QueryShardException(context, "[" + CONTENT_TYPE + "] fields do not support searching");
+        }
+    }
+
+    protected SignatureFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+                                   Settings indexSettings, MultiFields multiFields, CopyTo copyTo) {
+        super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+    }
+
+    @Override
+    protected void parseCreateField(ParseContext context, List<IndexableField> fields) throws IOException {
+        String value;
+        boolean string;
+        if (context.externalValueSet()) {
+            value = context.externalValue().toString();
+            string = context.externalValue() instanceof String;
+        } else {
+            value = context.parser().textOrNull();
+            string = context.parser().currentToken() == XContentParser.Token.VALUE_STRING;
+        }
+        if (value == null) {
+            return;
+        }
+        String name = fieldType().name();
+        NumericDocValuesField unigrams = (NumericDocValuesField) context.doc().getByKey(name);
+        if (unigrams != null) {
+            // 多值字段评分时读到的是数组的字符串形式，签名不再可靠
+            unigrams.setLongValue(CharSignature.ALL);
+            ((NumericDocValuesField) context.doc().getByKey(name + BIGRAMS_SUFFIX)).setLongValue(CharSignature.ALL);
+            return;
+        }
+        unigrams = new NumericDocValuesField(name, CharSignature.ALL);
+        NumericDocValuesField bigrams = new NumericDocValuesField(name + BIGRAMS_SUFFIX, CharSignature.ALL);
+        if (string) {
+            // 与评分时一致，先转小写；数字等值评分时的字符串形式可能不同，不计算签名
+            char[] chars = NormalizeProcessor.normalize(value, -1).toCharArray();
+            unigrams.setLongValue(CharSignature.unigrams(chars, chars.length));
+            bigrams.setLongValue(CharSignature.packBigrams(CharSignature.bigrams(chars, chars.length), chars.length));
+        }
+        context.doc().addWithKey(name, unigrams);
+        context.doc().addWithKey(name + BIGRAMS_SUFFIX, bigrams);
+    }
+
+    @Override
+    protected String contentType() {
+        return CONTENT_TYPE;
+    }
+}
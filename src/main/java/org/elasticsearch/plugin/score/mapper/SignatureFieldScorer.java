@@ -0,0 +1,166 @@
+package org.elasticsearch.plugin.score.mapper;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.elasticsearch.plugin.score.FieldScorer;
+import org.elasticsearch.plugin.score.impl.CharSignature;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+
+import java.io.IOException;
+
+/**
+ * Checks the character signature stored by {@link SignatureFieldMapper} before the wrapped scorer reads the value:
+ * a document that shares no character with the query scores 0, and one whose bound from the signature cannot beat
+ * the threshold gets its bound, both without reading the value. Documents without a signature go to the wrapped
+ * scorer unchanged.
+ */
+public final class SignatureFieldScorer extends FieldScorer {
+
+    /**
+     * The upper bound of the score of a value from its length, when the value and the query share no substring
+     * longer than {@code maxPhraseLength}.
+     */
+    @FunctionalInterface
+    public interface Bound {
+        double maxScore(int length, int maxPhraseLength);
+    }
+
+    /**
+     * The signature of the query and how the algorithm is bounded by it, built once per request.
+     */
+    public static final class Prefilter {
+        private final long unigrams;
+        private final long bigrams;
+        private final Bound bound;
+
+        /**
+         * @param bigrams the bigram signature of the query, {@link CharSignature#ALL} when the algorithm cannot be
+         *                bounded by common character pairs
+         */
+        public Prefilter(long unigrams, long bigrams, Bound bound) {
+            this.unigrams = unigrams;
+            this.bigrams = CharSignature.bigramsOf(bigrams);
+            this.bound = bound;
+        }
+    }
+
+    /**
+     * 文档没有签名时的上界
+     */
+    private static final double UNKNOWN = Double.POSITIVE_INFINITY;
+
+    private final LeafReader reader;
+    private final String field;
+    private final Prefilter prefilter;
+    private final FieldScorer delegate;
+    private final ScriptStats stats;
+    private NumericDocValues unigrams;
+    private NumericDocValues bigrams;
+    /**
+     * 块内各文档按签名得到的上界，为0时不读取字段值
+     */
+    private double[] blockBounds = new double[0];
+    /**
+     * 块内下标 -> 交给delegate的块内下标
+     */
+    private int[] delegateIndex = new int[0];
+    private int[] delegateDocs = new int[0];
+
+    public SignatureFieldScorer(LeafReader reader, String field, Prefilter prefilter, FieldScorer delegate,
+                                ScriptStats stats) throws IOException {
+        this.reader = reader;
+        this.field = field;
+        this.prefilter = prefilter;
+        this.delegate = delegate;
+        this.stats = stats;
+        open();
+    }
+
+    private void open() throws IOException {
+        unigrams = DocValues.getNumeric(reader, field);
+        bigrams = DocValues.getNumeric(reader, field + SignatureFieldMapper.BIGRAMS_SUFFIX);
+    }
+
+    /**
+     * @return 按签名得到的分值上界，没有公共字符时为0，文档没有签名时为 {@link #UNKNOWN}
+     */
+    private double signatureBound(int docId) throws IOException {
+        if (docId < unigrams.docID()) {
+            // doc values只能向前迭代，乱序访问时重新打开
+            open();
+        }
+        if (unigrams.advanceExact(docId) == false || bigrams.advanceExact(docId) == false) {
+            return UNKNOWN;
+        }
+        if ((unigrams.longValue() & prefilter.unigrams) == 0) {
+            return 0;
+        }
+        long packed = bigrams.longValue();
+        int length = CharSignature.lengthOf(packed);
+        if (length < 0) {
+            return UNKNOWN;
+        }
+        int maxPhraseLength = (CharSignature.bigramsOf(packed) & prefilter.bigrams) == 0 ? 1 : Integer.MAX_VALUE;
+        return prefilter.bound.maxScore(length, maxPhraseLength);
+    }
+
+    @Override
+    public double score(int docId) throws IOException {
+        return score(docId, Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public double score(int docId, double minScore) throws IOException {
+        double bound = signatureBound(docId);
+        if (bound == 0 || bound <= minScore) {
+            stats.onSignatureSkip();
+            return bound;
+        }
+        return delegate.score(docId, minScore);
+    }
+
+    @Override
+    public double maxScore() {
+        return delegate.maxScore();
+    }
+
+    @Override
+    public void loadBlock(int[] docs, int count) throws IOException {
+        if (blockBounds.length < count) {
+            blockBounds = new double[count];
+            delegateIndex = new int[count];
+            delegateDocs = new int[count];
+        }
+        // 块内只跳过没有公共字符的文档，其余文档按上界是否有竞争力由LeafScorer决定
+        int loaded = 0;
+        for (int i = 0; i < count; i++) {
+            blockBounds[i] = signatureBound(docs[i]);
+            if (blockBounds[i] == 0) {
+                stats.onSignatureSkip();
+                delegateIndex[i] = -1;
+                continue;
+            }
+            delegateIndex[i] = loaded;
+            delegateDocs[loaded++] = docs[i];
+        }
+        delegate.loadBlock(delegateDocs, loaded);
+    }
+
+    @Override
+    public double blockMaxScore(int index) {
+        if (delegateIndex[index] < 0) {
+            return 0;
+        }
+        double maxScore = delegate.blockMaxScore(delegateIndex[index]);
+        return maxScore == MISSING ? MISSING : Math.min(maxScore, blockBounds[index]);
+    }
+
+    @Override
+    public double blockScore(int index) throws IOException {
+        if (delegateIndex[index] < 0) {
+            return 0;
+        }
+        return delegate.blockScore(delegateIndex[index]);
+    }
+}
@@ -0,0 +1,247 @@
+package org.elasticsearch.plugin.score.mapper;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.Version;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.mapper.CustomDocValuesField;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+import org.elasticsearch.plugin.score.impl.TermScore;
+import org.elasticsearch.plugin.score.ingest.NormalizeProcessor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.mapper.TypeParsers.parseField;
+
+/**
+ * Stores the analyzed token sequence of a field so {@code term_score} never tokenizes at query time.
+ * <p>
+ * The distinct tokens of a document go to sorted set doc values, whose ordinals are the per-segment term
+ * dictionary; the token sequence goes to binary doc values as vInt indexes into the document's own sorted
+ * distinct tokens, which map to segment ordinals in ordinal order.
+ * Usually mapped as a multi-field: {@code "fields": {"terms": {"type": "expert_terms"}}}.
+ */
+public class TermSequenceFieldMapper extends FieldMapper {
+
+    public static final String CONTENT_TYPE = "expert_terms";
+
+    /**
+     * 存储term序列的binary doc values字段名后缀
+     */
+    public static final String SEQUENCE_SUFFIX = "#seq";
+
+    /**
+     * 与 term_score 不传analyzer参数时使用的分词器一致
+     */
+    static final NamedAnalyzer DEFAULT_ANALYZER =
+        new NamedAnalyzer(TermScore.DEFAULT_ANALYZER_NAME, AnalyzerScope.GLOBAL, TermScore.DEFAULT_ANALYZER);
+
+    public static class Defaults {
+        public static final MappedFieldType FIELD_TYPE = new TermSequenceFieldType();
+
+        static {
+            FIELD_TYPE.setIndexOptions(IndexOptions.NONE);
+            FIELD_TYPE.setHasDocValues(true);
+            FIELD_TYPE.setIndexAnalyzer(DEFAULT_ANALYZER);
+            FIELD_TYPE.freeze();
+        }
+    }
+
+    public static class Builder extends FieldMapper.Builder<Builder, TermSequenceFieldMapper> {
+
+        public Builder(String name) {
+            super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
+            builder = this;
+        }
+
+        @Override
+        protected boolean defaultDocValues(Version indexCreated) {
+            return true;
+        }
+
+        @Override
+        public TermSequenceFieldMapper build(BuilderContext context) {
+            setupFieldType(context);
+            if (fieldType.hasDocValues() == false) {
+                throw new MapperParsingException("[" + CONTENT_TYPE + "] field [" + name + "] requires doc_values");
+            }
+            return new TermSequenceFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
+                multiFieldsBuilder.build(this, context), copyTo);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+        @Override
+        public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext) {
+            Builder builder = new Builder(name);
+            for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, Object> entry = iterator.next();
+                if ("analyzer".equals(entry.getKey())) {
+                    String analyzerName = entry.getValue().toString();
+                    NamedAnalyzer analyzer = parserContext.getIndexAnalyzers().get(analyzerName);
+                    if (analyzer == null) {
+                        throw new MapperParsingException("analyzer [" + analyzerName + "] not found for field ["
+                            + name + "]");
+                    }
+                    builder.indexAnalyzer(analyzer);
+                    iterator.remove();
+                }
+            }
+            parseField(builder, name, node, parserContext);
+            return builder;
+        }
+    }
+
+    public static final class TermSequenceFieldType extends MappedFieldType {
+
+        public TermSequenceFieldType() {
+        }
+
+        private TermSequenceFieldType(TermSequenceFieldType ref) {
+            super(ref);
+        }
+
+        @Override
+        public MappedFieldType clone() {
+            return new TermSequenceFieldType(this);
+        }
+
+        @Override
+        public String typeName() {
+            return CONTENT_TYPE;
+        }
+
+        /**
+         * @return the analyzer name the token sequence was built with, the query must be analyzed the same way
+         */
+        public String analyzerName() {
+            return indexAnalyzer().name();
+        }
+
+        @Override
+        public Query existsQuery(QueryShardContext context) {
+            return new DocValuesFieldExistsQuery(name());
+        }
+
+        @Override
+        public Query termQuery(Object value, QueryShardContext context) {
+            throw new QueryShardException(context, "[" + CONTENT_TYPE + "] fields do not support searching");
+        }
+    }
+
+    protected TermSequenceFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+                                      Settings indexSettings, MultiFields multiFields, CopyTo copyTo) {
+        super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+    }
+
+    @Override
+    public TermSequenceFieldType fieldType() {
+        return (TermSequenceFieldType) super.fieldType();
+    }
+
+    @Override
+    protected void parseCreateField(ParseContext context, List<IndexableField> fields) throws IOException {
+        String value;
+        if (context.externalValueSet()) {
+            value = context.externalValue().toString();
+        } else {
+            value = context.parser().textOrNull();
+        }
+        if (value == null) {
+            return;
+        }
+        String name = fieldType().name();
+        TermSequenceField sequence = (TermSequenceField) context.doc().getByKey(name);
+        if (sequence == null) {
+            sequence = new TermSequenceField(name + SEQUENCE_SUFFIX);
+            context.doc().addWithKey(name, sequence);
+        }
+        // 与评分时一致，先转小写再分词
+        try (TokenStream ts = fieldType().indexAnalyzer().tokenStream(name, NormalizeProcessor.normalize(value, -1))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                BytesRef token = new BytesRef(term);
+                sequence.add(token);
+                // 同一文档内重复的值由lucene去重
+                fields.add(new SortedSetDocValuesField(name, token));
+            }
+            ts.end();
+        }
+    }
+
+    @Override
+    protected String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, ToXContent.Params params)
+        throws IOException {
+        super.doXContentBody(builder, includeDefaults, params);
+        if (includeDefaults || fieldType().indexAnalyzer() != DEFAULT_ANALYZER) {
+            builder.field("analyzer", fieldType().analyzerName());
+        }
+    }
+
+    /**
+     * 文档的term序列，多值字段的各个值依次拼接
+     * 写入时才编码：按term排序去重得到文档内编号，编号顺序与segment内的ordinal顺序一致
+     */
+    static final class TermSequenceField extends CustomDocValuesField {
+        private final List<BytesRef> tokens = new ArrayList<>();
+
+        TermSequenceField(String name) {
+            super(name);
+        }
+
+        void add(BytesRef token) {
+            tokens.add(token);
+        }
+
+        @Override
+        public BytesRef binaryValue() {
+            BytesRef[] distinct = tokens.toArray(new BytesRef[0]);
+            Arrays.sort(distinct);
+            int count = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (count == 0 || distinct[i].equals(distinct[count - 1]) == false) {
+                    distinct[count++] = distinct[i];
+                }
+            }
+            byte[] bytes = new byte[tokens.size() * 5];
+            int length = 0;
+            for (BytesRef token : tokens) {
+                // vInt编码，与ByteArrayDataInput.readVInt对应
+                int id = Arrays.binarySearch(distinct, 0, count, token);
+                while ((id & ~0x7F) != 0) {
+                    bytes[length++] = (byte) ((id & 0x7F) | 0x80);
+                    id >>>= 7;
+                }
+                bytes[length++] = (byte) id;
+            }
+            return new BytesRef(bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.elasticsearch.plugin.score.mapper;
+
+import com.carrotsearch.hppc.LongObjectHashMap;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.elasticsearch.plugin.score.CostBudget;
+import org.elasticsearch.plugin.score.FieldScorer;
+import org.elasticsearch.plugin.score.impl.TermScore;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.plugin.score.stats.SlowScoreTracer;
+
+import java.io.IOException;
+
+/**
+ * Scores {@code term_score} from the token sequence stored by {@link TermSequenceFieldMapper}: the query terms are
+ * mapped to segment ordinals once per leaf, and each document is matched over its decoded ordinals without any
+ * tokenization. Documents without a stored sequence are scored by the fallback. Reading the sequences and matching
+ * them are reported to the script stats and the slow score tracer like the text of other fields, with the number of
+ * terms as the value length.
+ */
+public final class TermSequenceScorer extends FieldScorer {
+    private final LeafReader reader;
+    private final String field;
+    private final TermScore.TermsMetaInfo metaInfo;
+    private final TermScore.Matcher matcher;
+    private final FieldScorer fallback;
+    private final CostBudget.Request budget;
+    private final ScriptStats stats;
+    private final SlowScoreTracer.Scope trace;
+    /**
+     * segment内的ordinal -> 该term在query中出现位置的位图，只包含query中的term
+     */
+    private final LongObjectHashMap<long[]> ordMasks = new LongObjectHashMap<>();
+    private final ByteArrayDataInput in = new ByteArrayDataInput();
+    private SortedSetDocValues ords;
+    private BinaryDocValues sequences;
+    /**
+     * 文档内编号 -> 位图
+     */
+    private long[][] localMasks = new long[16][];
+    /**
+     * 块内各文档的序列，没有序列时stored为false
+     */
+    private BytesRefBuilder[] block = new BytesRefBuilder[0];
+    private boolean[] stored = new boolean[0];
+    private int[] blockDocs;
+    /**
+     * 最近一次匹配的序列中的term数
+     */
+    private int tokens;
+
+    public TermSequenceScorer(LeafReader reader, String field, TermScore.TermsMetaInfo metaInfo,
+                              TermScore.Matcher matcher, FieldScorer fallback, CostBudget.Request budget,
+                              ScriptStats stats, SlowScoreTracer.Scope trace) throws IOException {
+        this.reader = reader;
+        this.field = field;
+        this.metaInfo = metaInfo;
+        this.matcher = matcher;
+        this.fallback = fallback;
+        this.budget = budget;
+        this.stats = stats;
+        this.trace = trace;
+        open();
+        for (String term : metaInfo.distinctTerms()) {
+            long ord = ords.lookupTerm(new BytesRef(term));
+            if (ord >= 0) {
+                ordMasks.put(ord, metaInfo.mask(term));
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        ords = DocValues.getSortedSet(reader, field);
+        sequences = DocValues.getBinary(reader, field + TermSequenceFieldMapper.SEQUENCE_SUFFIX);
+    }
+
+    @Override
+    public double score(int docId) throws IOException {
+        return score(docId, Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public double score(int docId, double minScore) throws IOException {
+        long start = System.nanoTime();
+        if (docId < sequences.docID()) {
+            // doc values只能向前迭代，乱序访问时重新打开
+            open();
+        }
+        if (sequences.advanceExact(docId) == false) {
+            // 没有序列的文档由fallback读取、评分并统计
+            return fallback.score(docId, minScore);
+        }
+        BytesRef bytes = sequences.binaryValue();
+        long loaded = System.nanoTime();
+        stats.onLoad(loaded - start);
+        double maxScore = maxScore(bytes.length);
+        if (maxScore <= minScore) {
+            return maxScore;
+        }
+        double score = match(docId, bytes);
+        long end = System.nanoTime();
+        stats.onAlgorithm(end - loaded);
+        trace.maybeRecord(docId, tokens, end - start);
+        return score;
+    }
+
+    /**
+     * 每个term至少占一个字节
+     */
+    private double maxScore(int sequenceBytes) {
+        return ordMasks.isEmpty() ? 0 : metaInfo.maxScore(sequenceBytes);
+    }
+
+    @Override
+    public void loadBlock(int[] docs, int count) throws IOException {
+        if (block.length < count) {
+            BytesRefBuilder[] grown = new BytesRefBuilder[count];
+            System.arraycopy(block, 0, grown, 0, block.length);
+            for (int i = block.length; i < count; i++) {
+                grown[i] = new BytesRefBuilder();
+            }
+            block = grown;
+            stored = new boolean[count];
+        }
+        blockDocs = docs;
+        long start = System.nanoTime();
+        if (count > 0 && docs[0] < sequences.docID()) {
+            open();
+        }
+        for (int i = 0; i < count; i++) {
+            stored[i] = sequences.advanceExact(docs[i]);
+            if (stored[i]) {
+                block[i].copyBytes(sequences.binaryValue());
+            }
+        }
+        stats.onLoad(System.nanoTime() - start);
+    }
+
+    @Override
+    public double blockMaxScore(int index) {
+        if (stored[index] == false) {
+            return fallback.maxScore();
+        }
+        return maxScore(block[index].length());
+    }
+
+    @Override
+    public double blockScore(int index) throws IOException {
+        if (stored[index] == false) {
+            return fallback.score(blockDocs[index]);
+        }
+        long start = System.nanoTime();
+        double score = match(blockDocs[index], block[index].get());
+        long nanos = System.nanoTime() - start;
+        stats.onAlgorithm(nanos);
+        // 块内只统计匹配耗时
+        trace.maybeRecord(blockDocs[index], tokens, nanos);
+        return score;
+    }
+
+    private double match(int docId, BytesRef bytes) throws IOException {
+        tokens = 0;
+        if (bytes.length == 0 || ordMasks.isEmpty()) {
+            return 0;
+        }
+        if (docId < ords.docID()) {
+            ords = DocValues.getSortedSet(reader, field);
+        }
+        int distinct = 0;
+        if (ords.advanceExact(docId)) {
+            for (long ord = ords.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = ords.nextOrd()) {
+                if (distinct == localMasks.length) {
+                    localMasks = ArrayUtil.grow(localMasks, distinct + 1);
+                }
+                localMasks[distinct++] = ordMasks.get(ord);
+            }
+        }
+        in.reset(bytes.bytes, bytes.offset, bytes.length);
+        matcher.begin();
+        while (in.eof() == false) {
+            matcher.accept(localMasks[in.readVInt()]);
+            tokens++;
+        }
+        budget.charge(tokens);
+        return matcher.finish();
+    }
+}
@@ -0,0 +1,556 @@
+package org.elasticsearch.plugin.score.query;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.elasticsearch.plugin.score.LeafScorer;
+import org.elasticsearch.plugin.score.ScoreLeafFactory;
+import org.elasticsearch.plugin.score.concurrent.LeafExecutor;
+import org.elasticsearch.plugin.score.concurrent.SearchCancellation;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Matches the documents of the inner query and scores them with an expert scoring algorithm, replacing the
+ * score of the inner query. Top level collection scores the matches of a leaf in blocks.
+ * <p>
+ * Lucene 7 collectors do not report their minimum competitive score, so with a {@code topK} hint the weight keeps
+ * the best {@code topK} scores of the shard itself. Once that many docs were scored, docs whose upper bound is below
+ * the lowest of them are not run through the algorithm and are collected with a score of 0: they keep counting as
+ * hits but cannot enter the top hits. This only holds when this query is the whole query of the query phase and
+ * every collected doc reaches the top hits sorted by score, so the hint is ignored otherwise, see
+ * {@link #canPrune(SearchContext, Query, int)}.
+ * <p>
+ * With a parallelism above 1, the search thread matches the next {@code parallelism} leaves itself, scores their
+ * hits on the {@link LeafExecutor} together and then replays them to the collector in order. No scoring runs on the
+ * pool while the leaves are collected.
+ */
+public final class ExpertMatchQuery extends Query {
+    /**
+     * 每块的文档数，块内先读出所有字段值再运行算法
+     */
+    static final int BLOCK_SIZE = 64;
+
+    private final Query query;
+    private final String script;
+    private final Map<String, Object> params;
+    private final ScoreLeafFactory factory;
+    /**
+     * 按评分排序时每个分片需要的文档数，0表示不剪枝
+     */
+    private final int topK;
+    /**
+     * 同时评分的leaf数，包括search线程
+     */
+    private final int parallelism;
+    private final LeafExecutor executor;
+
+    public ExpertMatchQuery(Query query, String script, Map<String, Object> params, ScoreLeafFactory factory,
+                            int topK, int parallelism, LeafExecutor executor) {
+        this.query = query;
+        this.script = script;
+        this.params = params;
+        this.factory = factory;
+        this.topK = topK;
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = query.rewrite(reader);
+        if (rewritten != query) {
+            return new ExpertMatchQuery(rewritten, script, params, factory, topK, parallelism, executor);
+        }
+        return super.rewrite(reader);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+        // 原评分被替换，内层查询只用于匹配
+        Weight inner = query.createWeight(searcher, false, 1f);
+        if (needsScores == false) {
+            return inner;
+        }
+        return new ExpertWeight(this, inner, boost);
+    }
+
+    /**
+     * Whether the weight may keep the top scores itself: every collected doc must reach the top hits sorted by score.
+     * This only holds in a query phase whose query is {@code query} itself, optionally boosted: inside a bool,
+     * function_score or dis_max query the top hits depend on the scores of other clauses. A post filter, min_score,
+     * collapse or search_after drop collected docs, aggregations, rescorers and a sort by field use the scores of docs
+     * outside the top hits, and a {@code topK} below {@code from + size} would zero docs of the requested page.
+     *
+     * @param context the search of the current query phase, {@code null} outside of one
+     * @param query   the rewritten expert_match query
+     */
+    static boolean canPrune(SearchContext context, Query query, int topK) {
+        if (context == null) {
+            return false;
+        }
+        Query top = context.query();
+        while (top instanceof BoostQuery) {
+            top = ((BoostQuery) top).getQuery();
+        }
+        return query.equals(top) && topK >= context.from() + context.size()
+            && context.parsedPostFilter() == null && context.aggregations() == null && context.minimumScore() == null
+            && context.collapse() == null && context.searchAfter() == null && context.sort() == null
+            && (context.rescore() == null || context.rescore().isEmpty());
+    }
+
+    /**
+     * 内层查询不评分，超出预算的文档得0分
+     */
+    private static double expertScore(double score) {
+        return score == LeafScorer.DEGRADED ? 0 : score;
+    }
+
+    private final class ExpertWeight extends Weight {
+        private final Weight inner;
+        private final float boost;
+        /**
+         * 各leaf共用的前k个评分，不剪枝时为null
+         */
+        private final TopScores topScores;
+        private final int parallelism;
+        /**
+         * 创建时所在的search线程的请求是否已取消，在线程池中检查
+         */
+        private final BooleanSupplier cancelled;
+        /**
+         * leaf序号 -> 已评分的命中，search线程处理到该leaf时取出，只在search线程访问
+         */
+        private final Map<Integer, LeafHits> prefetched = new HashMap<>();
+
+        ExpertWeight(Query query, Weight inner, float boost) {
+            super(query);
+            this.inner = inner;
+            this.boost = boost;
+            // boost不为正时评分顺序与算法分值不一致
+            // 不是顶层查询、收集的文档可能被丢弃或使用其评分时不剪枝
+            boolean prune = topK > 0 && boost > 0 && canPrune(SearchCancellation.context(), query, topK);
+            this.topScores = prune ? new TopScores(topK) : null;
+            this.parallelism = executor.parallelism(ExpertMatchQuery.this.parallelism);
+            this.cancelled = SearchCancellation.current();
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            inner.extractTerms(terms);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            Explanation match = inner.explain(context, doc);
+            if (match.isMatch() == false) {
+                return match;
+            }
+            float score = (float) expertScore(factory.newLeafScorer(context).score(doc)) * boost;
+            return Explanation.match(score, "expert_match [" + script + "], product of:",
+                Explanation.match(score / boost, "expert score"), Explanation.match(boost, "boost"));
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            Scorer scorer = inner.scorer(context);
+            if (scorer == null) {
+                return null;
+            }
+            return new ExpertScorer(this, scorer, factory.newLeafScorer(context), boost);
+        }
+
+        @Override
+        public BulkScorer bulkScorer(LeafReaderContext context) throws IOException {
+            if (parallelism > 1) {
+                if (prefetched.containsKey(context.ord) == false) {
+                    prefetch(context);
+                }
+                LeafHits hits = prefetched.remove(context.ord);
+                return hits == null ? null : new ReplayBulkScorer(this, hits);
+            }
+            Scorer scorer = inner.scorer(context);
+            if (scorer == null) {
+                return null;
+            }
+            return new BlockBulkScorer(this, scorer, factory.newLeafScorer(context), boost, topScores);
+        }
+
+        /**
+         * 在search线程匹配从当前leaf开始的parallelism个leaf，内层查询只在search线程执行；
+         * 再在线程池中并发评分这些leaf的命中，返回时线程池中已没有本次请求的任务
+         */
+        private void prefetch(LeafReaderContext context) throws IOException {
+            List<LeafReaderContext> leaves = ReaderUtil.getTopLevelContext(context).leaves();
+            int end = Math.min(leaves.size(), context.ord + parallelism);
+            List<Callable<LeafHits>> tasks = new ArrayList<>(end - context.ord);
+            for (int ord = context.ord; ord < end; ord++) {
+                LeafReaderContext leaf = leaves.get(ord);
+                LeafHits hits = LeafHits.match(inner.scorer(leaf), leaf.reader().getLiveDocs());
+                // 没有命中的leaf记为null，处理到时不再匹配
+                prefetched.put(ord, hits);
+                if (hits != null) {
+                    tasks.add(() -> hits.score(factory.newLeafScorer(leaf), topScores, cancelled));
+                }
+            }
+            boolean success = false;
+            try {
+                executor.invokeAll(tasks, parallelism, cancelled);
+                success = true;
+            } finally {
+                if (success == false) {
+                    // 未评分完的命中不能交给collector
+                    prefetched.clear();
+                }
+            }
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext ctx) {
+            // 评分依赖_source，与其他脚本一样不缓存
+            return false;
+        }
+    }
+
+    /**
+     * 逐个文档评分，用于不能批量收集的场景(如与其他查询组合)
+     */
+    private static final class ExpertScorer extends Scorer {
+        private final Scorer inner;
+        private final LeafScorer leafScorer;
+        private final float boost;
+
+        ExpertScorer(Weight weight, Scorer inner, LeafScorer leafScorer, float boost) {
+            super(weight);
+            this.inner = inner;
+            this.leafScorer = leafScorer;
+            this.boost = boost;
+        }
+
+        @Override
+        public int docID() {
+            return inner.docID();
+        }
+
+        @Override
+        public float score() throws IOException {
+            long start = System.nanoTime();
+            float score = (float) expertScore(leafScorer.score(inner.docID())) * boost;
+            leafScorer.stats().onExecute(System.nanoTime() - start);
+            return score;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return inner.iterator();
+        }
+
+        @Override
+        public TwoPhaseIterator twoPhaseIterator() {
+            return inner.twoPhaseIterator();
+        }
+    }
+
+    /**
+     * 按块收集：先从内层查询取出一块匹配的文档，整块评分后再交给collector
+     */
+    private static final class BlockBulkScorer extends BulkScorer {
+        private final Scorer inner;
+        private final LeafScorer leafScorer;
+        private final float boost;
+        private final TopScores topScores;
+        private final BlockScorer current;
+        private final int[] docs = new int[BLOCK_SIZE];
+        private final float[] scores = new float[BLOCK_SIZE];
+        /**
+         * 本leaf内任意文档的评分上界
+         */
+        private final double maxScore;
+
+        BlockBulkScorer(Weight weight, Scorer inner, LeafScorer leafScorer, float boost, TopScores topScores) {
+            this.inner = inner;
+            this.leafScorer = leafScorer;
+            this.boost = boost;
+            this.topScores = topScores;
+            this.current = new BlockScorer(weight);
+            this.maxScore = topScores == null ? Double.POSITIVE_INFINITY : leafScorer.maxScore();
+        }
+
+        @Override
+        public int score(LeafCollector collector, Bits acceptDocs, int min, int max) throws IOException {
+            collector.setScorer(current);
+            DocIdSetIterator iterator = inner.iterator();
+            int doc = iterator.docID();
+            if (doc < min) {
+                doc = iterator.advance(min);
+            }
+            while (doc < max) {
+                int count = 0;
+                while (doc < max && count < BLOCK_SIZE) {
+                    if (acceptDocs == null || acceptDocs.get(doc)) {
+                        docs[count++] = doc;
+                    }
+                    doc = iterator.nextDoc();
+                }
+                scoreBlock(leafScorer, topScores, maxScore, docs, count, scores);
+                for (int i = 0; i < count; i++) {
+                    current.doc = docs[i];
+                    current.score = scores[i] * boost;
+                    collector.collect(docs[i]);
+                }
+            }
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return inner.iterator().cost();
+        }
+    }
+
+    /**
+     * 评分一块文档，{@code topScores}不为null时跳过上界不足的文档并记录前k个评分
+     *
+     * @param maxScore 本leaf内任意文档的评分上界
+     */
+    private static void scoreBlock(LeafScorer leafScorer, TopScores topScores, double maxScore,
+                                   int[] docs, int count, float[] scores) throws IOException {
+        long start = System.nanoTime();
+        if (topScores == null) {
+            leafScorer.score(docs, count, scores);
+        } else {
+            float minCompetitiveScore = topScores.minCompetitiveScore();
+            if (maxScore < minCompetitiveScore) {
+                // 整个leaf都不可能进入前k，不再读取字段值，评分记为0
+                Arrays.fill(scores, 0, count, 0f);
+                leafScorer.stats().onPruned(count);
+            } else {
+                leafScorer.score(docs, count, scores, minCompetitiveScore);
+            }
+            topScores.add(scores, count);
+        }
+        leafScorer.stats().onExecute(count, System.nanoTime() - start);
+    }
+
+    /**
+     * 缓存一个leaf的命中及其评分，doc递增
+     */
+    private static final class LeafHits {
+        private int[] docs = new int[BLOCK_SIZE];
+        private float[] scores;
+        private int size;
+
+        /**
+         * 在search线程中取出内层查询的全部命中
+         *
+         * @return 没有命中时为null
+         */
+        static LeafHits match(Scorer scorer, Bits liveDocs) throws IOException {
+            if (scorer == null) {
+                return null;
+            }
+            LeafHits hits = new LeafHits();
+            DocIdSetIterator iterator = scorer.iterator();
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    if (hits.size == hits.docs.length) {
+                        hits.docs = ArrayUtil.grow(hits.docs, hits.size + 1);
+                    }
+                    hits.docs[hits.size++] = doc;
+                }
+            }
+            return hits.size == 0 ? null : hits;
+        }
+
+        /**
+         * 按块评分全部命中，可在线程池中执行
+         */
+        LeafHits score(LeafScorer leafScorer, TopScores topScores, BooleanSupplier cancelled) throws IOException {
+            double maxScore = topScores == null ? Double.POSITIVE_INFINITY : leafScorer.maxScore();
+            int[] blockDocs = new int[BLOCK_SIZE];
+            float[] blockScores = new float[BLOCK_SIZE];
+            scores = new float[size];
+            for (int from = 0; from < size; from += BLOCK_SIZE) {
+                // 每块检查一次是否取消
+                LeafExecutor.checkCancelled(cancelled);
+                int count = Math.min(BLOCK_SIZE, size - from);
+                System.arraycopy(docs, from, blockDocs, 0, count);
+                scoreBlock(leafScorer, topScores, maxScore, blockDocs, count, blockScores);
+                System.arraycopy(blockScores, 0, scores, from, count);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * 把提前算好的命中按doc顺序交给collector
+     */
+    private static final class ReplayBulkScorer extends BulkScorer {
+        private final LeafHits hits;
+        private final BlockScorer current;
+        private int next;
+
+        ReplayBulkScorer(Weight weight, LeafHits hits) {
+            this.hits = hits;
+            this.current = new BlockScorer(weight);
+        }
+
+        @Override
+        public int score(LeafCollector collector, Bits acceptDocs, int min, int max) throws IOException {
+            collector.setScorer(current);
+            while (next < hits.size && hits.docs[next] < min) {
+                next++;
+            }
+            for (; next < hits.size && hits.docs[next] < max; next++) {
+                int doc = hits.docs[next];
+                if (acceptDocs == null || acceptDocs.get(doc)) {
+                    current.doc = doc;
+                    current.score = hits.scores[next];
+                    collector.collect(doc);
+                }
+            }
+            return next < hits.size ? hits.docs[next] : DocIdSetIterator.NO_MORE_DOCS;
+        }
+
+        @Override
+        public long cost() {
+            return hits.size;
+        }
+    }
+
+    /**
+     * 分片内最高的k个评分的小顶堆，提前评分的leaf在线程池中并发更新
+     */
+    private static final class TopScores {
+        private final float[] heap;
+        private int size;
+
+        TopScores(int k) {
+            this.heap = new float[k];
+        }
+
+        /**
+         * @return 第k高的评分，不足k个时为负无穷
+         */
+        synchronized float minCompetitiveScore() {
+            return size < heap.length ? Float.NEGATIVE_INFINITY : heap[0];
+        }
+
+        synchronized void add(float[] scores, int count) {
+            for (int i = 0; i < count; i++) {
+                float score = scores[i];
+                if (size < heap.length) {
+                    heap[size] = score;
+                    upHeap(size++);
+                } else if (score > heap[0]) {
+                    heap[0] = score;
+                    downHeap();
+                }
+            }
+        }
+
+        private void upHeap(int i) {
+            float value = heap[i];
+            while (i > 0 && heap[(i - 1) >>> 1] > value) {
+                heap[i] = heap[(i - 1) >>> 1];
+                i = (i - 1) >>> 1;
+            }
+            heap[i] = value;
+        }
+
+        private void downHeap() {
+            float value = heap[0];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= value) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = value;
+        }
+    }
+
+    /**
+     * 把块内已算好的评分交给collector
+     */
+    private static final class BlockScorer extends Scorer {
+        int doc = -1;
+        float score;
+
+        BlockScorer(Weight weight) {
+            super(weight);
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public float score() {
+            return score;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Override
+    public String toString(String field) {
+        return "expert_match(" + query.toString(field) + ", script=" + script + ", params=" + params
+            + (topK > 0 ? ", top_k=" + topK : "") + (parallelism > 1 ? ", parallelism=" + parallelism : "") + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (sameClassAs(other) == false) {
+            return false;
+        }
+        ExpertMatchQuery that = (ExpertMatchQuery) other;
+        return query.equals(that.query) && script.equals(that.script) && params.equals(that.params)
+            && topK == that.topK && parallelism == that.parallelism;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), query, script, params, topK, parallelism);
+    }
+}
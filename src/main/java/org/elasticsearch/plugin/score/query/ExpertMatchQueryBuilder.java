@@ -0,0 +1,235 @@
+package org.elasticsearch.plugin.score.query;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.plugin.score.ExpertScripts;
+import org.elasticsearch.plugin.score.ScoreLeafFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Scores the matches of {@code query} with one of the expert scoring algorithms, without the per doc script
+ * round trip of {@code function_score}.
+ * <pre>
+ * "expert_match": {
+ *   "query": {"match": {"body": "查询词"}},
+ *   "script": "term_score",
+ *   "params": {"field": ["title^2", "body"], "query": "查询词"},
+ *   "top_k": 10,
+ *   "parallelism": 2
+ * }
+ * </pre>
+ * {@code top_k} is an optional hint for searches sorted by score where this is the top level query: docs that cannot
+ * enter the best {@code top_k} of the shard are not scored, see {@link ExpertMatchQuery}. {@code parallelism} scores
+ * that many segments of a shard at once on the plugin's thread pool.
+ */
+public class ExpertMatchQueryBuilder extends AbstractQueryBuilder<ExpertMatchQueryBuilder> {
+    public static final String NAME = "expert_match";
+
+    private static final ParseField QUERY_FIELD = new ParseField("query");
+    private static final ParseField SCRIPT_FIELD = new ParseField("script");
+    private static final ParseField PARAMS_FIELD = new ParseField("params");
+    private static final ParseField TOP_K_FIELD = new ParseField("top_k");
+    private static final ParseField PARALLELISM_FIELD = new ParseField("parallelism");
+
+    private final QueryBuilder query;
+    private final String script;
+    private final Map<String, Object> params;
+    private int topK = 0;
+    private int parallelism = 1;
+    /**
+     * 本节点插件的状态，不参与序列化
+     */
+    private final ExpertScripts scripts;
+
+    public ExpertMatchQueryBuilder(QueryBuilder query, String script, Map<String, Object> params) {
+        this(query, script, params, ExpertScripts.UNCACHED);
+    }
+
+    ExpertMatchQueryBuilder(QueryBuilder query, String script, Map<String, Object> params, ExpertScripts scripts) {
+        this.query = Objects.requireNonNull(query, "[query] must not be null");
+        this.script = Objects.requireNonNull(script, "[script] must not be null");
+        this.params = Objects.requireNonNull(params, "[params] must not be null");
+        this.scripts = scripts;
+    }
+
+    public ExpertMatchQueryBuilder(StreamInput in, ExpertScripts scripts) throws IOException {
+        super(in);
+        query = in.readNamedWriteable(QueryBuilder.class);
+        script = in.readString();
+        params = in.readMap();
+        topK = in.readVInt();
+        parallelism = in.readVInt();
+        this.scripts = scripts;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeNamedWriteable(query);
+        out.writeString(script);
+        out.writeMap(params);
+        out.writeVInt(topK);
+        out.writeVInt(parallelism);
+    }
+
+    public QueryBuilder query() {
+        return query;
+    }
+
+    public String script() {
+        return script;
+    }
+
+    public Map<String, Object> params() {
+        return params;
+    }
+
+    /**
+     * Sets the number of top hits each shard has to return, should be at least {@code from + size}. 0, the default,
+     * scores every match.
+     */
+    public ExpertMatchQueryBuilder topK(int topK) {
+        if (topK < 0) {
+            throw new IllegalArgumentException("[" + TOP_K_FIELD.getPreferredName() + "] must be non-negative but was ["
+                + topK + "]");
+        }
+        this.topK = topK;
+        return this;
+    }
+
+    public int topK() {
+        return topK;
+    }
+
+    /**
+     * Sets the number of segments scored at once, capped by the node's {@code expert_scripts.max_parallelism}.
+     */
+    public ExpertMatchQueryBuilder parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("[" + PARALLELISM_FIELD.getPreferredName() + "] must be at least 1 but was ["
+                + parallelism + "]");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(QUERY_FIELD.getPreferredName(), query);
+        builder.field(SCRIPT_FIELD.getPreferredName(), script);
+        builder.field(PARAMS_FIELD.getPreferredName(), this.params);
+        if (topK > 0) {
+            builder.field(TOP_K_FIELD.getPreferredName(), topK);
+        }
+        if (parallelism > 1) {
+            builder.field(PARALLELISM_FIELD.getPreferredName(), parallelism);
+        }
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static ExpertMatchQueryBuilder fromXContent(XContentParser parser, ExpertScripts scripts) throws IOException {
+        QueryBuilder query = null;
+        String script = null;
+        Map<String, Object> params = new HashMap<>();
+        int topK = 0;
+        int parallelism = 1;
+        float boost = AbstractQueryBuilder.DEFAULT_BOOST;
+        String queryName = null;
+
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                if (QUERY_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    query = parseInnerQueryBuilder(parser);
+                } else if (PARAMS_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    params = parser.map();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),
+                        "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else if (token.isValue()) {
+                if (SCRIPT_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    script = parser.text();
+                } else if (TOP_K_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    topK = parser.intValue();
+                } else if (PARALLELISM_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    parallelism = parser.intValue();
+                } else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    boost = parser.floatValue();
+                } else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),
+                        "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),
+                    "[" + NAME + "] unexpected token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+        if (query == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [query]");
+        }
+        if (script == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [script]");
+        }
+        return new ExpertMatchQueryBuilder(query, script, params, scripts).topK(topK).parallelism(parallelism)
+            .boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected QueryBuilder doRewrite(QueryRewriteContext queryRewriteContext) throws IOException {
+        QueryBuilder rewritten = query.rewrite(queryRewriteContext);
+        if (rewritten != query) {
+            return new ExpertMatchQueryBuilder(rewritten, script, params, scripts).topK(topK).parallelism(parallelism);
+        }
+        return this;
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        ScoreLeafFactory factory = scripts.newLeafFactory(script, params, context.lookup());
+        return new ExpertMatchQuery(query.toQuery(context), script, params, factory, topK, parallelism,
+            scripts.leafExecutor());
+    }
+
+    @Override
+    protected boolean doEquals(ExpertMatchQueryBuilder other) {
+        return Objects.equals(query, other.query)
+            && Objects.equals(script, other.script)
+            && Objects.equals(params, other.params)
+            && topK == other.topK
+            && parallelism == other.parallelism;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(query, script, params, topK, parallelism);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+}
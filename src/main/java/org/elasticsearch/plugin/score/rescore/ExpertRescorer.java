@@ -0,0 +1,142 @@
+package org.elasticsearch.plugin.score.rescore;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.elasticsearch.plugin.score.LeafScorer;
+import org.elasticsearch.plugin.score.ScoreLeafFactory;
+import org.elasticsearch.plugin.score.concurrent.LeafExecutor;
+import org.elasticsearch.plugin.score.concurrent.SearchCancellation;
+import org.elasticsearch.search.rescore.QueryRescoreMode;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.Rescorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Scores the hits of the rescore window with the {@link LeafScorer} of the algorithm and combines the result
+ * with the original score, hits after the window keep their order. The hits of different segments may be scored
+ * concurrently on the {@link LeafExecutor}.
+ */
+public final class ExpertRescorer implements Rescorer {
+    public static final ExpertRescorer INSTANCE = new ExpertRescorer();
+
+    /**
+     * 分数降序，分数相同时doc升序，与lucene的QueryRescorer一致
+     */
+    private static final Comparator<ScoreDoc> SCORE_ORDER = (a, b) -> {
+        int cmp = Float.compare(b.score, a.score);
+        return cmp != 0 ? cmp : Integer.compare(a.doc, b.doc);
+    };
+
+    private ExpertRescorer() {
+    }
+
+    @Override
+    public TopDocs rescore(TopDocs topDocs, IndexSearcher searcher, RescoreContext rescoreContext) throws IOException {
+        if (topDocs == null || topDocs.scoreDocs.length == 0) {
+            return topDocs;
+        }
+        Context context = (Context) rescoreContext;
+        int end = Math.min(topDocs.scoreDocs.length, context.getWindowSize());
+        // 按doc顺序访问，每个leaf只创建一次LeafScorer，doc values也只需向前迭代
+        ScoreDoc[] window = Arrays.copyOf(topDocs.scoreDocs, end);
+        Arrays.sort(window, Comparator.comparingInt(scoreDoc -> scoreDoc.doc));
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        // 每个leaf的文档是window中连续的一段，各段互不相交，可以在不同线程中评分
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < end; ) {
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(window[from].doc, leaves));
+            int endDoc = leaf.docBase + leaf.reader().maxDoc();
+            int to = from;
+            while (to < end && window[to].doc < endDoc) {
+                to++;
+            }
+            int start = from;
+            int stop = to;
+            tasks.add(() -> {
+                LeafScorer scorer = context.factory.newLeafScorer(leaf);
+                for (int i = start; i < stop; i++) {
+                    double expertScore = scorer.score(window[i].doc - leaf.docBase);
+                    // 超出预算时与rescore查询未匹配的文档一样只保留第一轮评分
+                    window[i].score = expertScore == LeafScorer.DEGRADED
+                        ? window[i].score * context.queryWeight : context.combine(window[i].score, expertScore);
+                }
+                return null;
+            });
+            from = to;
+        }
+        context.executor.invokeAll(tasks, context.parallelism, SearchCancellation.current());
+        float maxScore = Float.NEGATIVE_INFINITY;
+        for (ScoreDoc scoreDoc : window) {
+            maxScore = Math.max(maxScore, scoreDoc.score);
+        }
+        Arrays.sort(window, SCORE_ORDER);
+        System.arraycopy(window, 0, topDocs.scoreDocs, 0, end);
+        for (int i = end; i < topDocs.scoreDocs.length; i++) {
+            maxScore = Math.max(maxScore, topDocs.scoreDocs[i].score);
+        }
+        topDocs.setMaxScore(maxScore);
+        return topDocs;
+    }
+
+    @Override
+    public Explanation explain(int topLevelDocId, IndexSearcher searcher, RescoreContext rescoreContext,
+                               Explanation sourceExplanation) throws IOException {
+        Context context = (Context) rescoreContext;
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(topLevelDocId, leaves));
+        double expertScore = context.factory.newLeafScorer(leaf).score(topLevelDocId - leaf.docBase);
+        float primary = sourceExplanation.isMatch() ? sourceExplanation.getValue() : 0f;
+        if (expertScore == LeafScorer.DEGRADED) {
+            return Explanation.match(primary * context.queryWeight, "expert rescore skipped, cost budget used up",
+                sourceExplanation, Explanation.match(context.queryWeight, "primaryWeight"));
+        }
+        Explanation first = Explanation.match(primary * context.queryWeight, "product of:",
+            sourceExplanation, Explanation.match(context.queryWeight, "primaryWeight"));
+        Explanation second = Explanation.match((float) expertScore * context.rescoreQueryWeight, "product of:",
+            Explanation.match((float) expertScore, "expert score"),
+            Explanation.match(context.rescoreQueryWeight, "secondaryWeight"));
+        return Explanation.match(context.combine(primary, expertScore),
+            "expert rescore, score mode [" + context.scoreMode + "], combination of:", first, second);
+    }
+
+    @Override
+    public void extractTerms(IndexSearcher searcher, RescoreContext rescoreContext, Set<Term> termsSet) {
+        // 评分只依赖字段值，没有需要统计的term
+    }
+
+    static final class Context extends RescoreContext {
+        private final ScoreLeafFactory factory;
+        private final float queryWeight;
+        private final float rescoreQueryWeight;
+        private final QueryRescoreMode scoreMode;
+        private final LeafExecutor executor;
+        private final int parallelism;
+
+        Context(int windowSize, ScoreLeafFactory factory, float queryWeight, float rescoreQueryWeight,
+                QueryRescoreMode scoreMode, LeafExecutor executor, int parallelism) {
+            super(windowSize, INSTANCE);
+            this.factory = factory;
+            this.queryWeight = queryWeight;
+            this.rescoreQueryWeight = rescoreQueryWeight;
+            this.scoreMode = scoreMode;
+            this.executor = executor;
+            this.parallelism = parallelism;
+        }
+
+        float combine(float primary, double expertScore) {
+            return scoreMode.combine(primary * queryWeight, (float) expertScore * rescoreQueryWeight);
+        }
+    }
+}
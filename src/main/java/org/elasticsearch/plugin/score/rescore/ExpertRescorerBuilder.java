@@ -0,0 +1,230 @@
+package org.elasticsearch.plugin.score.rescore;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.plugin.score.ExpertScripts;
+import org.elasticsearch.plugin.score.ScoreLeafFactory;
+import org.elasticsearch.search.rescore.QueryRescoreMode;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Rescores the top {@code window_size} hits of each shard with one of the expert scoring algorithms, so the
+ * expensive scoring only runs on the window instead of on every matching document.
+ * <pre>
+ * "rescore": {
+ *   "window_size": 200,
+ *   "expert_score": {
+ *     "script": "term_score",
+ *     "params": {"field": ["title^2", "body"], "query": "查询词"},
+ *     "query_weight": 1,
+ *     "rescore_query_weight": 1,
+ *     "score_mode": "total",
+ *     "parallelism": 1
+ *   }
+ * }
+ * </pre>
+ */
+public class ExpertRescorerBuilder extends RescorerBuilder<ExpertRescorerBuilder> {
+    public static final String NAME = "expert_score";
+
+    public static final float DEFAULT_QUERY_WEIGHT = 1.0f;
+    public static final float DEFAULT_RESCORE_QUERY_WEIGHT = 1.0f;
+    public static final QueryRescoreMode DEFAULT_SCORE_MODE = QueryRescoreMode.Total;
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    private static final ParseField SCRIPT_FIELD = new ParseField("script");
+    private static final ParseField PARAMS_FIELD = new ParseField("params");
+    private static final ParseField QUERY_WEIGHT_FIELD = new ParseField("query_weight");
+    private static final ParseField RESCORE_QUERY_WEIGHT_FIELD = new ParseField("rescore_query_weight");
+    private static final ParseField SCORE_MODE_FIELD = new ParseField("score_mode");
+    private static final ParseField PARALLELISM_FIELD = new ParseField("parallelism");
+
+    private static final ObjectParser<ExpertRescorerBuilder, Void> PARSER = new ObjectParser<>(NAME, ExpertRescorerBuilder::new);
+
+    static {
+        PARSER.declareString(ExpertRescorerBuilder::script, SCRIPT_FIELD);
+        PARSER.declareObject(ExpertRescorerBuilder::params, (p, c) -> p.map(), PARAMS_FIELD);
+        PARSER.declareFloat(ExpertRescorerBuilder::queryWeight, QUERY_WEIGHT_FIELD);
+        PARSER.declareFloat(ExpertRescorerBuilder::rescoreQueryWeight, RESCORE_QUERY_WEIGHT_FIELD);
+        PARSER.declareString((b, mode) -> b.scoreMode(QueryRescoreMode.fromString(mode)), SCORE_MODE_FIELD);
+        PARSER.declareInt(ExpertRescorerBuilder::parallelism, PARALLELISM_FIELD);
+    }
+
+    private String script;
+    private Map<String, Object> params = new HashMap<>();
+    private float queryWeight = DEFAULT_QUERY_WEIGHT;
+    private float rescoreQueryWeight = DEFAULT_RESCORE_QUERY_WEIGHT;
+    private QueryRescoreMode scoreMode = DEFAULT_SCORE_MODE;
+    private int parallelism = DEFAULT_PARALLELISM;
+    /**
+     * 本节点插件的状态，不参与序列化
+     */
+    private ExpertScripts scripts = ExpertScripts.UNCACHED;
+
+    private ExpertRescorerBuilder() {
+    }
+
+    public ExpertRescorerBuilder(String script, Map<String, Object> params) {
+        this.script = Objects.requireNonNull(script, "[script] must not be null");
+        this.params = Objects.requireNonNull(params, "[params] must not be null");
+    }
+
+    public ExpertRescorerBuilder(StreamInput in, ExpertScripts scripts) throws IOException {
+        super(in);
+        this.scripts = scripts;
+        script = in.readString();
+        params = in.readMap();
+        queryWeight = in.readFloat();
+        rescoreQueryWeight = in.readFloat();
+        scoreMode = QueryRescoreMode.readFromStream(in);
+        parallelism = in.readVInt();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(script);
+        out.writeMap(params);
+        out.writeFloat(queryWeight);
+        out.writeFloat(rescoreQueryWeight);
+        scoreMode.writeTo(out);
+        out.writeVInt(parallelism);
+    }
+
+    public static ExpertRescorerBuilder fromXContent(XContentParser parser, ExpertScripts scripts) throws IOException {
+        ExpertRescorerBuilder builder = PARSER.apply(parser, null);
+        builder.scripts = scripts;
+        if (builder.script == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [" + SCRIPT_FIELD.getPreferredName() + "]");
+        }
+        return builder;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(SCRIPT_FIELD.getPreferredName(), script);
+        builder.field(PARAMS_FIELD.getPreferredName(), this.params);
+        builder.field(QUERY_WEIGHT_FIELD.getPreferredName(), queryWeight);
+        builder.field(RESCORE_QUERY_WEIGHT_FIELD.getPreferredName(), rescoreQueryWeight);
+        builder.field(SCORE_MODE_FIELD.getPreferredName(), scoreMode.name().toLowerCase(Locale.ROOT));
+        builder.field(PARALLELISM_FIELD.getPreferredName(), parallelism);
+        builder.endObject();
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    public ExpertRescorerBuilder rewrite(QueryRewriteContext ctx) {
+        return this;
+    }
+
+    @Override
+    protected RescoreContext innerBuildContext(int windowSize, QueryShardContext context) {
+        ScoreLeafFactory factory = scripts.newLeafFactory(script, params, context.lookup());
+        return new ExpertRescorer.Context(windowSize, factory, queryWeight, rescoreQueryWeight, scoreMode,
+            scripts.leafExecutor(), parallelism);
+    }
+
+    public String script() {
+        return script;
+    }
+
+    private void script(String script) {
+        this.script = script;
+    }
+
+    public Map<String, Object> params() {
+        return params;
+    }
+
+    private void params(Map<String, Object> params) {
+        this.params = params;
+    }
+
+    /**
+     * Weight of the original score, 0 keeps only the expert score.
+     */
+    public ExpertRescorerBuilder queryWeight(float queryWeight) {
+        this.queryWeight = queryWeight;
+        return this;
+    }
+
+    public float queryWeight() {
+        return queryWeight;
+    }
+
+    /**
+     * Weight of the expert score.
+     */
+    public ExpertRescorerBuilder rescoreQueryWeight(float rescoreQueryWeight) {
+        this.rescoreQueryWeight = rescoreQueryWeight;
+        return this;
+    }
+
+    public float rescoreQueryWeight() {
+        return rescoreQueryWeight;
+    }
+
+    /**
+     * How the weighted original and expert scores are combined, like the {@code score_mode} of the query rescorer.
+     */
+    public ExpertRescorerBuilder scoreMode(QueryRescoreMode scoreMode) {
+        this.scoreMode = Objects.requireNonNull(scoreMode);
+        return this;
+    }
+
+    public QueryRescoreMode scoreMode() {
+        return scoreMode;
+    }
+
+    /**
+     * Sets the number of segments scored at once, capped by the node's {@code expert_scripts.max_parallelism}.
+     */
+    public ExpertRescorerBuilder parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("[" + PARALLELISM_FIELD.getPreferredName() + "] must be at least 1 but was ["
+                + parallelism + "]");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (super.equals(obj) == false) {
+            return false;
+        }
+        ExpertRescorerBuilder other = (ExpertRescorerBuilder) obj;
+        return Objects.equals(script, other.script)
+            && Objects.equals(params, other.params)
+            && queryWeight == other.queryWeight
+            && rescoreQueryWeight == other.rescoreQueryWeight
+            && scoreMode == other.scoreMode
+            && parallelism == other.parallelism;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), script, params, queryWeight, rescoreQueryWeight, scoreMode, parallelism);
+    }
+}
@@ -0,0 +1,106 @@
+package org.elasticsearch.plugin.score.stats;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+
+import java.io.IOException;
+
+/**
+ * Collects the {@link ScriptStats} or the {@link SlowScoreTracer} records of the selected nodes.
+ */
+public class ExpertStatsAction extends Action<ExpertStatsAction.Request, ExpertStatsResponse, ExpertStatsAction.RequestBuilder> {
+    public static final ExpertStatsAction INSTANCE = new ExpertStatsAction();
+    public static final String NAME = "cluster:monitor/expert_scripts/stats";
+
+    private ExpertStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    @Deprecated
+    public ExpertStatsResponse newResponse() {
+        throw new UnsupportedOperationException("usage of Streamable is to be replaced by Writeable");
+    }
+
+    @Override
+    public Writeable.Reader<ExpertStatsResponse> getResponseReader() {
+        return ExpertStatsResponse::new;
+    }
+
+    @Override
+    public RequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new RequestBuilder(client);
+    }
+
+    public static class Request extends BaseNodesRequest<Request> {
+        private boolean slowScores;
+
+        public Request(String... nodesIds) {
+            super(nodesIds);
+        }
+
+        /**
+         * Return the slow evaluations recorded by the tracer instead of the script stats.
+         */
+        public Request slowScores(boolean slowScores) {
+            this.slowScores = slowScores;
+            return this;
+        }
+
+        public boolean slowScores() {
+            return slowScores;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            slowScores = in.readBoolean();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeBoolean(slowScores);
+        }
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+        private boolean slowScores;
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId, Request request) {
+            super(nodeId);
+            this.slowScores = request.slowScores;
+        }
+
+        boolean slowScores() {
+            return slowScores;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            slowScores = in.readBoolean();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeBoolean(slowScores);
+        }
+    }
+
+    public static class RequestBuilder extends NodesOperationRequestBuilder<Request, ExpertStatsResponse, RequestBuilder> {
+        RequestBuilder(ElasticsearchClient client) {
+            super(client, INSTANCE, new Request());
+        }
+    }
+}
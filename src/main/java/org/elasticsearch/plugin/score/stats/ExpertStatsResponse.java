@@ -0,0 +1,148 @@
+package org.elasticsearch.plugin.score.stats;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ExpertStatsResponse extends BaseNodesResponse<ExpertStatsResponse.NodeStats> implements ToXContentFragment {
+
+    ExpertStatsResponse(StreamInput in) throws IOException {
+        readFrom(in);
+    }
+
+    ExpertStatsResponse(ClusterName clusterName, List<NodeStats> nodes, List<FailedNodeException> failures) {
+        super(clusterName, nodes, failures);
+    }
+
+    @Override
+    protected List<NodeStats> readNodesFrom(StreamInput in) throws IOException {
+        return in.readList(NodeStats::readNodeStats);
+    }
+
+    @Override
+    protected void writeNodesTo(StreamOutput out, List<NodeStats> nodes) throws IOException {
+        out.writeStreamableList(nodes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("nodes");
+        for (NodeStats node : getNodes()) {
+            builder.startObject(node.getNode().getId());
+            builder.field("name", node.getNode().getName());
+            node.toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * The stats of every script on one node.
+     */
+    public static class NodeStats extends BaseNodeResponse implements ToXContentFragment {
+        private Map<String, ScriptStats.Snapshot> scripts;
+        private List<SlowScoreTracer.Record> slowScores;
+        /**
+         * 启动预热的耗时，未预热时为-1
+         */
+        private long warmupNanos;
+        private int textArenas;
+        private long textArenaBytes;
+
+        NodeStats() {
+        }
+
+        NodeStats(DiscoveryNode node, Map<String, ScriptStats.Snapshot> scripts, List<SlowScoreTracer.Record> slowScores,
+                  long warmupNanos, int textArenas, long textArenaBytes) {
+            super(node);
+            this.scripts = new TreeMap<>(scripts);
+            this.slowScores = slowScores;
+            this.warmupNanos = warmupNanos;
+            this.textArenas = textArenas;
+            this.textArenaBytes = textArenaBytes;
+        }
+
+        static NodeStats readNodeStats(StreamInput in) throws IOException {
+            NodeStats stats = new NodeStats();
+            stats.readFrom(in);
+            return stats;
+        }
+
+        public Map<String, ScriptStats.Snapshot> scripts() {
+            return scripts;
+        }
+
+        public List<SlowScoreTracer.Record> slowScores() {
+            return slowScores;
+        }
+
+        public long warmupNanos() {
+            return warmupNanos;
+        }
+
+        public long textArenaBytes() {
+            return textArenaBytes;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            scripts = new TreeMap<>(in.readMap(StreamInput::readString, ScriptStats.Snapshot::new));
+            slowScores = in.readList(SlowScoreTracer.Record::new);
+            warmupNanos = in.readLong();
+            textArenas = in.readVInt();
+            textArenaBytes = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeMap(scripts, StreamOutput::writeString, (o, s) -> s.writeTo(o));
+            out.writeList(slowScores);
+            out.writeLong(warmupNanos);
+            out.writeVInt(textArenas);
+            out.writeVLong(textArenaBytes);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field("warmed_up", warmupNanos >= 0);
+            if (warmupNanos >= 0) {
+                builder.field("warmup_nanos", warmupNanos);
+            }
+            builder.startObject("text_arena");
+            builder.field("count", textArenas);
+            builder.field("size_in_bytes", textArenaBytes);
+            builder.endObject();
+            if (scripts.isEmpty() == false) {
+                builder.startObject("scripts");
+                for (Map.Entry<String, ScriptStats.Snapshot> entry : scripts.entrySet()) {
+                    builder.startObject(entry.getKey());
+                    entry.getValue().toXContent(builder, params);
+                    builder.endObject();
+                }
+                builder.endObject();
+            }
+            if (slowScores.isEmpty() == false) {
+                builder.startArray("slow_scores");
+                for (SlowScoreTracer.Record record : slowScores) {
+                    record.toXContent(builder, params);
+                }
+                builder.endArray();
+            }
+            return builder;
+        }
+    }
+}
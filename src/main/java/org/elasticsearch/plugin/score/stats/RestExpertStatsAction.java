@@ -0,0 +1,40 @@
+package org.elasticsearch.plugin.score.stats;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * {@code GET _expert_scripts/stats[/{node_id}]} and {@code GET _expert_scripts/slow_scores[/{node_id}]}.
+ */
+public class RestExpertStatsAction extends BaseRestHandler {
+
+    public RestExpertStatsAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(GET, "/_expert_scripts/stats", this);
+        controller.registerHandler(GET, "/_expert_scripts/stats/{node_id}", this);
+        controller.registerHandler(GET, "/_expert_scripts/slow_scores", this);
+        controller.registerHandler(GET, "/_expert_scripts/slow_scores/{node_id}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "expert_scripts_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        String[] nodesIds = Strings.splitStringByCommaToArray(request.param("node_id"));
+        ExpertStatsAction.Request statsRequest = new ExpertStatsAction.Request(nodesIds);
+        statsRequest.timeout(request.param("timeout"));
+        statsRequest.slowScores(request.path().startsWith("/_expert_scripts/slow_scores"));
+        return channel -> client.execute(ExpertStatsAction.INSTANCE, statsRequest,
+            new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
@@ -0,0 +1,290 @@
+package org.elasticsearch.plugin.score.stats;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one script on this node. Updated from the search threads for every scored doc, so they are
+ * {@link LongAdder}s and never lock.
+ */
+public final class ScriptStats {
+    /**
+     * 第i个桶统计耗时在 [2^(i-1), 2^i) 纳秒内的次数，最后一个桶包含更长的耗时
+     */
+    static final int HISTOGRAM_BUCKETS = 40;
+
+    private final LongAdder factories = new LongAdder();
+    private final LongAdder docs = new LongAdder();
+    private final LongAdder executeNanos = new LongAdder();
+    private final LongAdder[] executeHistogram = new LongAdder[HISTOGRAM_BUCKETS];
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder sourceLoads = new LongAdder();
+    private final LongAdder sourceNanos = new LongAdder();
+    private final LongAdder algorithmNanos = new LongAdder();
+    private final LongAdder missingFields = new LongAdder();
+    private final LongAdder prunedDocs = new LongAdder();
+    private final LongAdder skippedFields = new LongAdder();
+    private final LongAdder signatureSkips = new LongAdder();
+    private final LongAdder ordinalHits = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder degradedDocs = new LongAdder();
+
+    public ScriptStats() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            executeHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * A leaf factory was created, once per request and shard.
+     */
+    public void onFactory() {
+        factories.increment();
+    }
+
+    /**
+     * One doc was scored by {@code execute()}.
+     */
+    public void onExecute(long nanos) {
+        docs.increment();
+        executeNanos.add(nanos);
+        executeHistogram[bucket(nanos)].increment();
+    }
+
+    /**
+     * A block of {@code count} docs was scored, the histogram counts each doc with the average time.
+     */
+    public void onExecute(int count, long nanos) {
+        if (count == 0) {
+            return;
+        }
+        docs.add(count);
+        executeNanos.add(nanos);
+        executeHistogram[bucket(nanos / count)].add(count);
+    }
+
+    private static int bucket(long nanos) {
+        return Math.min(HISTOGRAM_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * The value of a text field was read, from doc values or {@code _source}.
+     */
+    public void onLoad(long nanos) {
+        loadNanos.add(nanos);
+    }
+
+    /**
+     * The value of a field was read from {@code _source}, also counted by {@link #onLoad(long)}.
+     */
+    public void onSourceLoad(long nanos) {
+        sourceLoads.increment();
+        sourceNanos.add(nanos);
+    }
+
+    /**
+     * The algorithm scored the text of a field.
+     */
+    public void onAlgorithm(long nanos) {
+        algorithmNanos.add(nanos);
+    }
+
+    /**
+     * A scored doc has no value for one of the scored fields.
+     */
+    public void onMissingField() {
+        missingFields.increment();
+    }
+
+    /**
+     * {@code count} docs could not compete and were not run through the algorithm.
+     */
+    public void onPruned(int count) {
+        prunedDocs.add(count);
+    }
+
+    /**
+     * {@code count} fields of a scored doc could not beat its best field and were not run through the algorithm.
+     */
+    public void onSkippedFields(int count) {
+        skippedFields.add(count);
+    }
+
+    /**
+     * The character signature of a field showed its value could not score above the threshold, so the value
+     * was not read.
+     */
+    public void onSignatureSkip() {
+        signatureSkips.increment();
+    }
+
+    /**
+     * A field value was scored before for another document of the leaf, the remembered score was reused.
+     */
+    public void onOrdinalHit() {
+        ordinalHits.increment();
+    }
+
+    /**
+     * A shard request used up its cost budget.
+     */
+    public void onBudgetExhausted() {
+        budgetExhausted.increment();
+    }
+
+    /**
+     * {@code count} docs were not scored by the algorithm because the cost budget of their request was used up.
+     */
+    public void onDegraded(int count) {
+        degradedDocs.add(count);
+    }
+
+    public Snapshot snapshot() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = executeHistogram[i].sum();
+        }
+        return new Snapshot(factories.sum(), docs.sum(), executeNanos.sum(), histogram, loadNanos.sum(),
+            sourceLoads.sum(), sourceNanos.sum(), algorithmNanos.sum(), missingFields.sum(), prunedDocs.sum(),
+            skippedFields.sum(), signatureSkips.sum(), ordinalHits.sum(), budgetExhausted.sum(), degradedDocs.sum());
+    }
+
+    /**
+     * Point in time copy of the counters, sent from each node to the coordinating node.
+     */
+    public static final class Snapshot implements Writeable, ToXContentFragment {
+        private final long factories;
+        private final long docs;
+        private final long executeNanos;
+        private final long[] executeHistogram;
+        private final long loadNanos;
+        private final long sourceLoads;
+        private final long sourceNanos;
+        private final long algorithmNanos;
+        private final long missingFields;
+        private final long prunedDocs;
+        private final long skippedFields;
+        private final long signatureSkips;
+        private final long ordinalHits;
+        private final long budgetExhausted;
+        private final long degradedDocs;
+
+        Snapshot(long factories, long docs, long executeNanos, long[] executeHistogram, long loadNanos,
+                 long sourceLoads, long sourceNanos, long algorithmNanos, long missingFields, long prunedDocs,
+                 long skippedFields, long signatureSkips, long ordinalHits, long budgetExhausted,
+                 long degradedDocs) {
+            this.factories = factories;
+            this.docs = docs;
+            this.executeNanos = executeNanos;
+            this.executeHistogram = executeHistogram;
+            this.loadNanos = loadNanos;
+            this.sourceLoads = sourceLoads;
+            this.sourceNanos = sourceNanos;
+            this.algorithmNanos = algorithmNanos;
+            this.missingFields = missingFields;
+            this.prunedDocs = prunedDocs;
+            this.skippedFields = skippedFields;
+            this.signatureSkips = signatureSkips;
+            this.ordinalHits = ordinalHits;
+            this.budgetExhausted = budgetExhausted;
+            this.degradedDocs = degradedDocs;
+        }
+
+        public Snapshot(StreamInput in) throws IOException {
+            factories = in.readVLong();
+            docs = in.readVLong();
+            executeNanos = in.readVLong();
+            executeHistogram = in.readVLongArray();
+            loadNanos = in.readVLong();
+            sourceLoads = in.readVLong();
+            sourceNanos = in.readVLong();
+            algorithmNanos = in.readVLong();
+            missingFields = in.readVLong();
+            prunedDocs = in.readVLong();
+            skippedFields = in.readVLong();
+            signatureSkips = in.readVLong();
+            ordinalHits = in.readVLong();
+            budgetExhausted = in.readVLong();
+            degradedDocs = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(factories);
+            out.writeVLong(docs);
+            out.writeVLong(executeNanos);
+            out.writeVLongArray(executeHistogram);
+            out.writeVLong(loadNanos);
+            out.writeVLong(sourceLoads);
+            out.writeVLong(sourceNanos);
+            out.writeVLong(algorithmNanos);
+            out.writeVLong(missingFields);
+            out.writeVLong(prunedDocs);
+            out.writeVLong(skippedFields);
+            out.writeVLong(signatureSkips);
+            out.writeVLong(ordinalHits);
+            out.writeVLong(budgetExhausted);
+            out.writeVLong(degradedDocs);
+        }
+
+        public long docs() {
+            return docs;
+        }
+
+        public long executeNanos() {
+            return executeNanos;
+        }
+
+        public long loadNanos() {
+            return loadNanos;
+        }
+
+        public long algorithmNanos() {
+            return algorithmNanos;
+        }
+
+        public long missingFields() {
+            return missingFields;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field("factories", factories);
+            builder.field("docs", docs);
+            builder.field("execute_nanos", executeNanos);
+            builder.field("load_nanos", loadNanos);
+            builder.field("source_loads", sourceLoads);
+            builder.field("source_nanos", sourceNanos);
+            builder.field("algorithm_nanos", algorithmNanos);
+            builder.field("missing_fields", missingFields);
+            builder.field("pruned_docs", prunedDocs);
+            builder.field("skipped_fields", skippedFields);
+            builder.field("signature_skips", signatureSkips);
+            builder.field("ordinal_hits", ordinalHits);
+            builder.field("budget_exhausted", budgetExhausted);
+            builder.field("degraded_docs", degradedDocs);
+            builder.startArray("execute_histogram");
+            for (int i = 0; i < executeHistogram.length; i++) {
+                if (executeHistogram[i] == 0) {
+                    continue;
+                }
+                builder.startObject();
+                if (i < executeHistogram.length - 1) {
+                    builder.field("lt_nanos", 1L << i);
+                } else {
+                    builder.field("gte_nanos", 1L << (i - 1));
+                }
+                builder.field("count", executeHistogram[i]);
+                builder.endObject();
+            }
+            builder.endArray();
+            return builder;
+        }
+    }
+}
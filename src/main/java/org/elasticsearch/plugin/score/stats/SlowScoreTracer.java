@@ -0,0 +1,191 @@
+package org.elasticsearch.plugin.score.stats;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the field evaluations that took longer than {@link #THRESHOLD_SETTING} in a bounded ring buffer,
+ * keeping the inputs needed to reproduce them. Disabled by default; the check on the scoring path is a single
+ * volatile read.
+ */
+public final class SlowScoreTracer {
+    public static final Setting<TimeValue> THRESHOLD_SETTING = Setting.timeSetting("expert_scripts.slow_score.threshold",
+        TimeValue.MINUS_ONE, TimeValue.MINUS_ONE, Setting.Property.Dynamic, Setting.Property.NodeScope);
+    public static final Setting<Integer> SIZE_SETTING =
+        Setting.intSetting("expert_scripts.slow_score.size", 128, 1, Setting.Property.NodeScope);
+
+    /**
+     * 小于0时关闭
+     */
+    private volatile long thresholdNanos;
+    private final AtomicReferenceArray<Record> records;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public SlowScoreTracer(Settings settings) {
+        this.records = new AtomicReferenceArray<>(SIZE_SETTING.get(settings));
+        setThreshold(THRESHOLD_SETTING.get(settings));
+    }
+
+    public void setThreshold(TimeValue threshold) {
+        this.thresholdNanos = threshold.nanos();
+    }
+
+    /**
+     * @return {@code true} when an evaluation that took {@code nanos} should be recorded
+     */
+    public boolean isSlow(long nanos) {
+        long threshold = thresholdNanos;
+        return threshold >= 0 && nanos >= threshold;
+    }
+
+    /**
+     * The inputs shared by the evaluations of one field in one leaf.
+     *
+     * @param shard   the shard of the leaf, -1 when unknown
+     * @param docBase added to the leaf doc ids to record the doc id within the shard
+     */
+    public Scope scope(String script, String index, int shard, String field, String query, int docBase) {
+        return new Scope(script, index, shard, field, query, docBase);
+    }
+
+    void record(String script, String index, int shard, int docId, String field, int valueLength, String query,
+                long nanos) {
+        long seq = sequence.getAndIncrement();
+        records.set((int) (seq % records.length()), new Record(seq, System.currentTimeMillis(), script, index, shard,
+            docId, field, valueLength, query, nanos));
+    }
+
+    /**
+     * @return the recorded evaluations, oldest first
+     */
+    public List<Record> records() {
+        List<Record> result = new ArrayList<>(records.length());
+        for (int i = 0; i < records.length(); i++) {
+            Record record = records.get(i);
+            if (record != null) {
+                result.add(record);
+            }
+        }
+        result.sort(Comparator.comparingLong(record -> record.sequence));
+        return result;
+    }
+
+    public final class Scope {
+        private final String script;
+        private final String index;
+        private final int shard;
+        private final String field;
+        private final String query;
+        private final int docBase;
+
+        private Scope(String script, String index, int shard, String field, String query, int docBase) {
+            this.script = script;
+            this.index = index;
+            this.shard = shard;
+            this.field = field;
+            this.query = query;
+            this.docBase = docBase;
+        }
+
+        /**
+         * @return {@code true} when evaluations are traced at all
+         */
+        public boolean enabled() {
+            return thresholdNanos >= 0;
+        }
+
+        /**
+         * Records the evaluation of the field of {@code docId} when it took longer than the threshold.
+         */
+        public void maybeRecord(int docId, int valueLength, long nanos) {
+            if (isSlow(nanos)) {
+                record(script, index, shard, docBase + docId, field, valueLength, query, nanos);
+            }
+        }
+    }
+
+    public static final class Record implements Writeable, ToXContentObject {
+        private final long sequence;
+        private final long timestamp;
+        private final String script;
+        private final String index;
+        /**
+         * doc id只在shard内唯一，未知时为-1
+         */
+        private final int shard;
+        private final int docId;
+        private final String field;
+        private final int valueLength;
+        private final String query;
+        private final long nanos;
+
+        Record(long sequence, long timestamp, String script, String index, int shard, int docId, String field,
+               int valueLength, String query, long nanos) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.script = script;
+            this.index = index;
+            this.shard = shard;
+            this.docId = docId;
+            this.field = field;
+            this.valueLength = valueLength;
+            this.query = query;
+            this.nanos = nanos;
+        }
+
+        public Record(StreamInput in) throws IOException {
+            sequence = in.readVLong();
+            timestamp = in.readVLong();
+            script = in.readString();
+            index = in.readString();
+            shard = in.readInt();
+            docId = in.readVInt();
+            field = in.readString();
+            valueLength = in.readVInt();
+            query = in.readString();
+            nanos = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(sequence);
+            out.writeVLong(timestamp);
+            out.writeString(script);
+            out.writeString(index);
+            out.writeInt(shard);
+            out.writeVInt(docId);
+            out.writeString(field);
+            out.writeVInt(valueLength);
+            out.writeString(query);
+            out.writeVLong(nanos);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("timestamp", timestamp);
+            builder.field("script", script);
+            builder.field("index", index);
+            builder.field("shard", shard);
+            builder.field("doc", docId);
+            builder.field("field", field);
+            builder.field("value_length", valueLength);
+            builder.field("query", query);
+            builder.field("nanos", nanos);
+            return builder.endObject();
+        }
+    }
+}
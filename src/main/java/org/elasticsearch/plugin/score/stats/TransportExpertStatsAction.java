@@ -0,0 +1,57 @@
+package org.elasticsearch.plugin.score.stats;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugin.score.ExpertScripts;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TransportExpertStatsAction extends TransportNodesAction<ExpertStatsAction.Request, ExpertStatsResponse,
+    ExpertStatsAction.NodeRequest, ExpertStatsResponse.NodeStats> {
+
+    private final ExpertScripts scripts;
+
+    @Inject
+    public TransportExpertStatsAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                      TransportService transportService, ActionFilters actionFilters,
+                                      IndexNameExpressionResolver indexNameExpressionResolver, ExpertScripts scripts) {
+        super(settings, ExpertStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+            indexNameExpressionResolver, ExpertStatsAction.Request::new, ExpertStatsAction.NodeRequest::new,
+            ThreadPool.Names.MANAGEMENT, ExpertStatsResponse.NodeStats.class);
+        this.scripts = scripts;
+    }
+
+    @Override
+    protected ExpertStatsResponse newResponse(ExpertStatsAction.Request request, List<ExpertStatsResponse.NodeStats> nodes,
+                                              List<FailedNodeException> failures) {
+        return new ExpertStatsResponse(clusterService.getClusterName(), nodes, failures);
+    }
+
+    @Override
+    protected ExpertStatsAction.NodeRequest newNodeRequest(String nodeId, ExpertStatsAction.Request request) {
+        return new ExpertStatsAction.NodeRequest(nodeId, request);
+    }
+
+    @Override
+    protected ExpertStatsResponse.NodeStats newNodeResponse() {
+        return new ExpertStatsResponse.NodeStats();
+    }
+
+    @Override
+    protected ExpertStatsResponse.NodeStats nodeOperation(ExpertStatsAction.NodeRequest request) {
+        if (request.slowScores()) {
+            return new ExpertStatsResponse.NodeStats(clusterService.localNode(), Collections.emptyMap(),
+                scripts.tracer().records(), scripts.warmupNanos(), scripts.textArenaCount(), scripts.textArenaBytes());
+        }
+        return new ExpertStatsResponse.NodeStats(clusterService.localNode(), scripts.stats(), Collections.emptyList(),
+            scripts.warmupNanos(), scripts.textArenaCount(), scripts.textArenaBytes());
+    }
+}
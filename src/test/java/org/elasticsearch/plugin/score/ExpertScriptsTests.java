@@ -0,0 +1,28 @@
+package org.elasticsearch.plugin.score;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Arrays;
+
+public class ExpertScriptsTests extends ESTestCase {
+
+    public void testIndexRemovalDropsItsQueries() {
+        ExpertScripts scripts = new ExpertScripts(Settings.EMPTY, null, null);
+        Index removed = new Index("test", randomAlphaOfLength(8));
+        // 同名索引重建后uuid不同
+        Index other = new Index("test", randomAlphaOfLength(9));
+        scripts.compiledQuery(Arrays.asList(TermScoreFactory.NAME, "q", "ik", removed), () -> "removed");
+        scripts.compiledQuery(Arrays.asList(TermScoreFactory.NAME, "q", "ik", other), () -> "other");
+        scripts.compiledQuery(Arrays.asList(TermScoreFactory.NAME, "q", "standard"), () -> "global");
+        assertEquals(3, scripts.queryCacheCount());
+
+        scripts.onIndexRemoved(removed);
+        assertEquals(2, scripts.queryCacheCount());
+        assertEquals("other", scripts.compiledQuery(Arrays.asList(TermScoreFactory.NAME, "q", "ik", other),
+            () -> "recompiled"));
+        assertEquals("recompiled", scripts.compiledQuery(Arrays.asList(TermScoreFactory.NAME, "q", "ik", removed),
+            () -> "recompiled"));
+    }
+}
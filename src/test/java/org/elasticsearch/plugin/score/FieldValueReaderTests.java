@@ -0,0 +1,84 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class FieldValueReaderTests extends ESTestCase {
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private LeafReaderContext leaf;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = newDirectory();
+        // 按相邻segment合并，文档号与写入顺序一致
+        try (IndexWriter writer = new IndexWriter(directory,
+                newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+            writer.addDocument(doc(Arrays.asList("b", "a", "b"), "b", "a", "b"));
+            writer.addDocument(doc("c", "c"));
+            // 超过ignore_above时只有_source
+            writer.addDocument(doc("d"));
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        leaf = getOnlyLeafReader(reader).getContext();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+        super.tearDown();
+    }
+
+    private static Document doc(Object source, String... docValues) throws IOException {
+        Document document = ScoreTestUtils.sourceDoc("tag", source);
+        for (String value : docValues) {
+            document.add(new SortedSetDocValuesField("tag", new BytesRef(value)));
+        }
+        return document;
+    }
+
+    private FieldValueReader reader(FieldValueReader.ReadMode mode) throws IOException {
+        ScoreField field = new ScoreField("tag", 1, "tag", null, null);
+        return FieldValueReader.create(leaf, new SourceFieldsLoader(leaf.reader(), "tag"), field, mode,
+            new ScriptStats(), null, -1);
+    }
+
+    private static String read(FieldValueReader reader, int docId) throws IOException {
+        CharsRefBuilder into = new CharsRefBuilder();
+        return reader.read(docId, into) ? into.toString() : null;
+    }
+
+    /**
+     * 多值文档与_source一致读到整个列表，单值文档读doc values
+     */
+    public void testMultiValuedReadsSource() throws IOException {
+        FieldValueReader reader = reader(FieldValueReader.ReadMode.AUTO);
+        assertEquals("[b, a, b]", read(reader, 0));
+        assertEquals("c", read(reader, 1));
+        assertEquals("d", read(reader, 2));
+        // 乱序访问时重新打开doc values
+        assertEquals("[b, a, b]", read(reader, 0));
+    }
+
+    public void testMultiValuedDocValuesOnly() throws IOException {
+        FieldValueReader reader = reader(FieldValueReader.ReadMode.DOC_VALUES);
+        assertEquals("[a, b]", read(reader, 0));
+        assertEquals("c", read(reader, 1));
+        assertNull(read(reader, 2));
+    }
+}
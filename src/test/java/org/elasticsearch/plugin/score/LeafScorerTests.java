@@ -0,0 +1,146 @@
+package org.elasticsearch.plugin.score;
+
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+public class LeafScorerTests extends ESTestCase {
+
+    private static final double[] WEIGHTS = {-1, 0, 0.5, 1, 1, 2, 3};
+
+    private ScoreField[] fields;
+    private TableScorer[] scorers;
+    private int maxDoc;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        maxDoc = between(1, 500);
+        fields = new ScoreField[between(1, 6)];
+        scorers = new TableScorer[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new ScoreField("field" + i, WEIGHTS[between(0, WEIGHTS.length - 1)], null, null, null);
+            scorers[i] = new TableScorer(maxDoc);
+        }
+    }
+
+    private LeafScorer leafScorer(ScriptStats stats) {
+        return new LeafScorer(fields, scorers, stats, CostBudget.UNLIMITED);
+    }
+
+    /**
+     * 逐个字段评分并取加权后的最高分
+     */
+    private double expected(int doc) {
+        double maxScore = 0.0;
+        for (int i = 0; i < fields.length; i++) {
+            if (scorers[i].scores[doc] != FieldScorer.MISSING) {
+                maxScore = Math.max(maxScore, scorers[i].scores[doc] * fields[i].weight());
+            }
+        }
+        return maxScore;
+    }
+
+    /**
+     * 按权重从高到低并跳过不可能胜出的字段，分值与逐个字段评分一致
+     */
+    public void testScoresMatchEveryField() throws IOException {
+        LeafScorer leafScorer = leafScorer(new ScriptStats());
+        for (int doc = 0; doc < maxDoc; doc++) {
+            assertEquals("doc " + doc, expected(doc), leafScorer.score(doc), 0d);
+        }
+    }
+
+    public void testBlockScoresMatchEveryField() throws IOException {
+        LeafScorer leafScorer = leafScorer(new ScriptStats());
+        int[] block = new int[between(1, 64)];
+        float[] scores = new float[block.length];
+        for (int start = 0; start < maxDoc; start += block.length) {
+            int count = Math.min(block.length, maxDoc - start);
+            for (int i = 0; i < count; i++) {
+                block[i] = start + i;
+            }
+            leafScorer.score(block, count, scores);
+            for (int i = 0; i < count; i++) {
+                assertEquals("doc " + block[i], (float) expected(block[i]), scores[i], 0f);
+            }
+        }
+    }
+
+    /**
+     * 上界低于minCompetitiveScore的文档记为0分，其余文档的分值不变
+     */
+    public void testBlockPruning() throws IOException {
+        LeafScorer leafScorer = leafScorer(new ScriptStats());
+        double minCompetitiveScore = randomDoubleBetween(0, 100, true);
+        int[] docs = new int[maxDoc];
+        for (int doc = 0; doc < maxDoc; doc++) {
+            docs[doc] = doc;
+        }
+        float[] scores = new float[maxDoc];
+        int pruned = leafScorer.score(docs, maxDoc, scores, minCompetitiveScore);
+        int zeros = 0;
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (expected(doc) >= minCompetitiveScore) {
+                assertEquals("doc " + doc, (float) expected(doc), scores[doc], 0f);
+            } else if (scores[doc] == 0f) {
+                zeros++;
+            } else {
+                assertEquals("doc " + doc, (float) expected(doc), scores[doc], 0f);
+            }
+        }
+        assertTrue(pruned <= zeros);
+    }
+
+    /**
+     * 分值来自随机的表，按文档的上界不低于其分值，整个leaf的上界随机为已知或未知
+     */
+    private static final class TableScorer extends FieldScorer {
+        private final double[] scores;
+        private final double[] bounds;
+        private final double maxScore;
+        private int[] blockDocs;
+
+        TableScorer(int maxDoc) {
+            scores = new double[maxDoc];
+            bounds = new double[maxDoc];
+            double max = 0;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                scores[doc] = rarely() ? MISSING : between(0, 100);
+                bounds[doc] = scores[doc] == MISSING ? MISSING : scores[doc] + between(0, 20);
+                max = Math.max(max, bounds[doc]);
+            }
+            maxScore = randomBoolean() ? max : Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public double score(int docId) {
+            return scores[docId];
+        }
+
+        @Override
+        public double score(int docId, double minScore) {
+            if (bounds[docId] != MISSING && bounds[docId] <= minScore) {
+                return bounds[docId];
+            }
+            return score(docId);
+        }
+
+        @Override
+        public double maxScore() {
+            return maxScore;
+        }
+
+        @Override
+        public void loadBlock(int[] docs, int count) throws IOException {
+            super.loadBlock(docs, count);
+            blockDocs = docs;
+        }
+
+        @Override
+        public double blockMaxScore(int index) {
+            return bounds[blockDocs[index]];
+        }
+    }
+}
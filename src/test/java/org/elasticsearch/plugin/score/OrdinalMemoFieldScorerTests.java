@@ -0,0 +1,182 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class OrdinalMemoFieldScorerTests extends ESTestCase {
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private LeafReader leaf;
+    /**
+     * 各文档的值在字典中的序号，没有值时为-1
+     */
+    private int[] values;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = newDirectory();
+        int dictionary = between(8, 200);
+        values = new int[between(dictionary * 2, 2000)];
+        // 按相邻segment合并，文档号与写入顺序一致
+        try (IndexWriter writer = new IndexWriter(directory,
+                newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+            for (int doc = 0; doc < values.length; doc++) {
+                Document document = new Document();
+                values[doc] = rarely() ? -1 : between(0, dictionary - 1);
+                if (values[doc] >= 0) {
+                    document.add(new SortedSetDocValuesField("tag", new BytesRef("v" + values[doc])));
+                }
+                writer.addDocument(document);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        leaf = getOnlyLeafReader(reader);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+        super.tearDown();
+    }
+
+    public void testScoresMatchDelegate() throws IOException {
+        CountingScorer delegate = new CountingScorer(values);
+        FieldScorer memo = OrdinalMemoFieldScorer.wrap(leaf, "tag", delegate, new ScriptStats());
+        List<Integer> docs = new ArrayList<>();
+        for (int doc = 0; doc < values.length; doc++) {
+            docs.add(doc);
+        }
+        // 乱序访问时重新打开doc values
+        Collections.shuffle(docs, random());
+        for (int doc : docs) {
+            assertEquals(delegate.expected(doc), memo.score(doc), 0d);
+        }
+        int missing = 0;
+        for (int value : values) {
+            if (value < 0) {
+                missing++;
+            }
+        }
+        assertEquals(leaf.getSortedSetDocValues("tag").getValueCount() + missing, delegate.calls);
+    }
+
+    public void testBlockScoresMatchDelegate() throws IOException {
+        CountingScorer delegate = new CountingScorer(values);
+        FieldScorer memo = OrdinalMemoFieldScorer.wrap(leaf, "tag", delegate, new ScriptStats());
+        int[] block = new int[between(1, 64)];
+        for (int start = 0; start < values.length; start += block.length) {
+            int count = Math.min(block.length, values.length - start);
+            for (int i = 0; i < count; i++) {
+                block[i] = start + i;
+            }
+            memo.loadBlock(block, count);
+            for (int i = 0; i < count; i++) {
+                if (randomBoolean()) {
+                    assertEquals(delegate.expected(block[i]), memo.blockScore(i), 0d);
+                }
+            }
+        }
+    }
+
+    /**
+     * 未能评分的上界不记录，之后仍交给delegate评分
+     */
+    public void testBoundsAreNotRemembered() throws IOException {
+        int doc = 0;
+        while (values[doc] < 0) {
+            doc++;
+        }
+        CountingScorer delegate = new CountingScorer(values);
+        FieldScorer memo = OrdinalMemoFieldScorer.wrap(leaf, "tag", delegate, new ScriptStats());
+        // 不超过minScore的分值可能是上界
+        assertEquals(delegate.expected(doc), memo.score(doc, delegate.expected(doc)), 0d);
+        assertEquals(delegate.expected(doc), memo.score(doc), 0d);
+        assertEquals(2, delegate.calls);
+    }
+
+    public void testArrayAllocatedOnDemand() throws IOException {
+        OrdinalMemoFieldScorer memo = (OrdinalMemoFieldScorer) OrdinalMemoFieldScorer.wrap(leaf, "tag",
+            new CountingScorer(values), new ScriptStats());
+        assertFalse(memo.isDense());
+        for (int doc = 0; doc < values.length; doc++) {
+            memo.score(doc);
+        }
+        assertTrue(memo.isDense());
+        for (int doc = 0; doc < values.length; doc++) {
+            assertEquals(new CountingScorer(values).expected(doc), memo.score(doc), 0d);
+        }
+    }
+
+    /**
+     * 多值文档评分整个列表，不按最小的ordinal复用分值
+     */
+    public void testMultiValuedDocsAreDelegated() throws IOException {
+        int docs = between(4, 50);
+        // 值为-1的文档有 v0、v1 两个值，其余只有 v0
+        int[] multi = new int[docs];
+        int multiValued = 0;
+        try (Directory directory = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory,
+                    newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+                for (int doc = 0; doc < docs; doc++) {
+                    Document document = new Document();
+                    document.add(new SortedSetDocValuesField("tag", new BytesRef("v0")));
+                    if (doc < 2 || randomBoolean()) {
+                        document.add(new SortedSetDocValuesField("tag", new BytesRef("v1")));
+                        multi[doc] = -1;
+                        multiValued++;
+                    }
+                    writer.addDocument(document);
+                }
+                writer.forceMerge(1);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                CountingScorer delegate = new CountingScorer(multi);
+                FieldScorer memo = OrdinalMemoFieldScorer.wrap(getOnlyLeafReader(reader), "tag", delegate,
+                    new ScriptStats());
+                for (int doc = 0; doc < docs; doc++) {
+                    assertEquals(delegate.expected(doc), memo.score(doc), 0d);
+                }
+                assertEquals(multiValued + (multiValued < docs ? 1 : 0), delegate.calls);
+            }
+        }
+    }
+
+    /**
+     * 分值由文档的值决定，统计评分次数
+     */
+    private static final class CountingScorer extends FieldScorer {
+        private final int[] values;
+        private int calls;
+
+        CountingScorer(int[] values) {
+            this.values = values;
+        }
+
+        double expected(int docId) {
+            return values[docId] < 0 ? MISSING : values[docId] * 1.5;
+        }
+
+        @Override
+        public double score(int docId) {
+            calls++;
+            return expected(docId);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.mapper.SourceFieldMapper;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds documents and script params for tests that score real leaves.
+ */
+public final class ScoreTestUtils {
+
+    private ScoreTestUtils() {
+    }
+
+    /**
+     * A document with only a {@code _source} built from {@code fieldValues}, pairs of field name and value.
+     * Null values are left out.
+     */
+    public static Document sourceDoc(Object... fieldValues) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        for (int i = 0; i < fieldValues.length; i += 2) {
+            if (fieldValues[i + 1] != null) {
+                builder.field((String) fieldValues[i], fieldValues[i + 1]);
+            }
+        }
+        builder.endObject();
+        return sourceDoc(builder);
+    }
+
+    public static Document sourceDoc(XContentBuilder source) {
+        Document document = new Document();
+        document.add(new StoredField(SourceFieldMapper.NAME, BytesReference.bytes(source).toBytesRef()));
+        return document;
+    }
+
+    /**
+     * Params of a script scoring {@code fields} ({@code field^weight}) against {@code query}.
+     */
+    public static Map<String, Object> params(String query, String... fields) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("query", query);
+        params.put("field", Arrays.asList(fields));
+        return params;
+    }
+
+    /**
+     * A lookup without mappings, scored fields are read from {@code _source}.
+     */
+    public static SearchLookup lookup() {
+        return new SearchLookup(null, fieldType -> null, new String[0]);
+    }
+
+    public static ScoreLeafFactory factory(String script, Map<String, Object> params) {
+        return ExpertScripts.UNCACHED.newLeafFactory(script, params, lookup());
+    }
+}
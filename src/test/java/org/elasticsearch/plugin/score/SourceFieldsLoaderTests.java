@@ -0,0 +1,157 @@
+package org.elasticsearch.plugin.score;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.mapper.SourceFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SourceFieldsLoaderTests extends ESTestCase {
+
+    private static final String[] FIELDS = {"title", "meta", "meta.title", "a.b", "a.b.c", "missing"};
+    private static final String[] TOP_KEYS = {"title", "meta", "meta.title", "a", "a.b", "x"};
+    private static final String[] KEYS = {"title", "meta", "a", "b", "c", "x"};
+
+    public void testObjectPaths() throws IOException {
+        try (Directory directory = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory,
+                    newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+                writer.addDocument(source("{\"meta\":{\"title\":\"Nested\",\"x\":1},\"title\":\"Top\"}"));
+                writer.addDocument(source("{\"meta.title\":\"Dotted\",\"a\":{\"b\":[{\"c\":1},{\"c\":2},{\"d\":3}]}}"));
+                writer.addDocument(source("{\"meta\":[{\"title\":\"a\"},{\"title\":\"b\"}],\"title\":null}"));
+                writer.addDocument(source("{\"meta\":{\"title\":null},\"a\":\"b\"}"));
+                writer.forceMerge(1);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                SourceFieldsLoader loader = new SourceFieldsLoader(getOnlyLeafReader(reader), FIELDS);
+                int title = loader.slot("title");
+                int metaTitle = loader.slot("meta.title");
+                int abc = loader.slot("a.b.c");
+                assertEquals("Top", loader.value(0, title));
+                assertEquals("Nested", loader.value(0, metaTitle));
+                assertEquals("Dotted", loader.value(1, metaTitle));
+                assertEquals("[1, 2]", loader.value(1, abc));
+                assertEquals("[a, b]", loader.value(2, metaTitle));
+                assertEquals("null", loader.value(2, title));
+                assertNull(loader.value(3, metaTitle));
+                assertNull(loader.value(3, abc));
+                assertNull(loader.value(3, title));
+            }
+        }
+    }
+
+    /**
+     * 与解析为Map后取顶层key或按路径取值的结果一致
+     */
+    public void testMatchesSourceMap() throws IOException {
+        List<BytesReference> sources = new ArrayList<>();
+        try (Directory directory = newDirectory()) {
+            // 按相邻segment合并，文档号与写入顺序一致
+            try (IndexWriter writer = new IndexWriter(directory,
+                    newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+                for (int i = between(50, 300); i > 0; i--) {
+                    XContentBuilder builder = XContentFactory.contentBuilder(randomFrom(XContentType.JSON,
+                        XContentType.SMILE, XContentType.CBOR, XContentType.YAML));
+                    builder.startObject();
+                    for (String key : randomSubsetOf(Arrays.asList(TOP_KEYS))) {
+                        builder.field(key);
+                        randomValue(builder, 3);
+                    }
+                    builder.endObject();
+                    sources.add(BytesReference.bytes(builder));
+                    writer.addDocument(ScoreTestUtils.sourceDoc(builder));
+                }
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                for (LeafReaderContext leaf : reader.leaves()) {
+                    String[] fields = randomSubsetOf(between(1, FIELDS.length), FIELDS).toArray(new String[0]);
+                    SourceFieldsLoader loader = new SourceFieldsLoader(leaf.reader(), fields);
+                    for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                        BytesReference bytes = sources.get(leaf.docBase + doc);
+                        // 顶层key的顺序取自有序的Map，取值与 SourceLookup 一样来自无序的Map
+                        Set<String> keys = XContentHelper.convertToMap(bytes, true).v2().keySet();
+                        Map<String, Object> source = XContentHelper.convertToMap(bytes, false).v2();
+                        for (String field : fields) {
+                            assertEquals(source + " " + field, expected(keys, source, field),
+                                loader.value(doc, loader.slot(field)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 按源中的顺序，先出现的顶层key或对象路径生效
+     */
+    private static String expected(Set<String> keys, Map<String, Object> source, String field) {
+        for (String key : keys) {
+            if (key.equals(field)) {
+                return String.valueOf(source.get(key));
+            }
+            if (field.startsWith(key + ".")) {
+                Object value = XContentMapValues.extractValue(field, Collections.singletonMap(key, source.get(key)));
+                if (value != null) {
+                    return String.valueOf(value);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void randomValue(XContentBuilder builder, int depth) throws IOException {
+        switch (between(0, depth > 0 ? 5 : 3)) {
+            case 0:
+                builder.value(randomAlphaOfLengthBetween(0, 10));
+                break;
+            case 1:
+                builder.value(randomInt());
+                break;
+            case 2:
+                builder.nullValue();
+                break;
+            case 3:
+                builder.value(randomBoolean());
+                break;
+            case 4:
+                builder.startObject();
+                for (String key : randomSubsetOf(Arrays.asList(KEYS))) {
+                    builder.field(key);
+                    randomValue(builder, depth - 1);
+                }
+                builder.endObject();
+                break;
+            default:
+                builder.startArray();
+                for (int i = between(0, 3); i > 0; i--) {
+                    randomValue(builder, depth - 1);
+                }
+                builder.endArray();
+                break;
+        }
+    }
+
+    private static Document source(String json) {
+        Document document = new Document();
+        document.add(new StoredField(SourceFieldMapper.NAME, new BytesRef(json)));
+        return document;
+    }
+}
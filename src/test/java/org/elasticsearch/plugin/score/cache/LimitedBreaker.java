@@ -0,0 +1,48 @@
+package org.elasticsearch.plugin.score.cache;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+
+/**
+ * Counts the bytes added by the caches and trips above a limit.
+ */
+final class LimitedBreaker extends NoopCircuitBreaker {
+    private long limit;
+    private long used;
+
+    LimitedBreaker(long limit) {
+        super(CircuitBreaker.FIELDDATA);
+        this.limit = limit;
+    }
+
+    void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    @Override
+    public synchronized double addEstimateBytesAndMaybeBreak(long bytes, String label) {
+        if (used + bytes > limit) {
+            throw new CircuitBreakingException("[" + label + "] would use " + (used + bytes) + " bytes", used + bytes,
+                limit);
+        }
+        used += bytes;
+        return used;
+    }
+
+    @Override
+    public synchronized long addWithoutBreaking(long bytes) {
+        used += bytes;
+        return used;
+    }
+
+    @Override
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    @Override
+    public long getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,68 @@
+package org.elasticsearch.plugin.score.cache;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+public class ScoreCacheTests extends ESTestCase {
+
+    private static ScoreCache enabledCache() {
+        return new ScoreCache(Settings.builder().put(ScoreCache.SIZE_SETTING.getKey(), "1mb").build());
+    }
+
+    private static Directory index(int docs) throws IOException {
+        Directory directory = newDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, newIndexWriterConfig())) {
+            for (int i = 0; i < docs; i++) {
+                writer.addDocument(new Document());
+            }
+            writer.forceMerge(1);
+        }
+        return directory;
+    }
+
+    public void testDisabledByDefault() throws IOException {
+        assertEquals(0, ScoreCache.SIZE_SETTING.get(Settings.EMPTY).getBytes());
+        try (Directory directory = index(10); DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertNull(new ScoreCache(Settings.EMPTY).scores(reader.leaves().get(0), "query"));
+        }
+    }
+
+    public void testCachesPerSegmentAndQuery() throws IOException {
+        ScoreCache cache = enabledCache();
+        try (Directory directory = index(10); DirectoryReader reader = DirectoryReader.open(directory)) {
+            LeafReaderContext leaf = reader.leaves().get(0);
+            ScoreCache.Scores scores = cache.scores(leaf, "query");
+            assertTrue(Float.isNaN(scores.get(3)));
+            scores.set(3, 1.5f);
+            assertSame(scores, cache.scores(leaf, "query"));
+            assertEquals(1.5f, cache.scores(leaf, "query").get(3), 0f);
+            assertNotSame(scores, cache.scores(leaf, "other"));
+        }
+    }
+
+    public void testBreaker() throws IOException {
+        ScoreCache cache = enabledCache();
+        LimitedBreaker breaker = new LimitedBreaker(100);
+        cache.setCircuitBreaker(breaker);
+        try (Directory directory = index(100)) {
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReaderContext leaf = reader.leaves().get(0);
+                // 400字节超出breaker，不缓存
+                assertNull(cache.scores(leaf, "query"));
+                assertEquals(0, breaker.getUsed());
+                breaker.setLimit(1000);
+                assertNotNull(cache.scores(leaf, "query"));
+                assertEquals(ScoreCache.Scores.ramBytesUsed(100), breaker.getUsed());
+            }
+            // segment关闭后释放
+            assertEquals(0, breaker.getUsed());
+        }
+    }
+}
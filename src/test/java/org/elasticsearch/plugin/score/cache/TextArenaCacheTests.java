@@ -0,0 +1,126 @@
+package org.elasticsearch.plugin.score.cache;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugin.score.ScoreTestUtils;
+import org.elasticsearch.plugin.score.ingest.NormalizeProcessor;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TextArenaCacheTests extends ESTestCase {
+
+    private List<String> values;
+
+    private static TextArenaCache enabledCache() {
+        return new TextArenaCache(Settings.builder().put(TextArenaCache.SIZE_SETTING.getKey(), "1mb").build());
+    }
+
+    private Directory index(int docs) throws IOException {
+        values = new ArrayList<>();
+        Directory directory = newDirectory();
+        // 按相邻segment合并，文档号与写入顺序一致
+        try (IndexWriter writer = new IndexWriter(directory,
+                newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+            for (int i = 0; i < docs; i++) {
+                String value = rarely() ? null : randomRealisticUnicodeOfCodepointLengthBetween(0, 30);
+                values.add(value);
+                writer.addDocument(ScoreTestUtils.sourceDoc("title", value));
+            }
+            writer.forceMerge(1);
+        }
+        return directory;
+    }
+
+    public void testDisabledByDefault() throws IOException {
+        assertEquals(0, TextArenaCache.SIZE_SETTING.get(Settings.EMPTY).getBytes());
+        try (Directory directory = index(10); DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertNull(new TextArenaCache(Settings.EMPTY).arena(reader.leaves().get(0), "title", -1));
+        }
+    }
+
+    public void testMaxSegmentDocs() throws IOException {
+        int docs = between(2, 50);
+        TextArenaCache cache = new TextArenaCache(Settings.builder().put(TextArenaCache.SIZE_SETTING.getKey(), "1mb")
+            .put(TextArenaCache.MAX_SEGMENT_DOCS_SETTING.getKey(), docs - 1).build());
+        try (Directory directory = index(docs); DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertNull(cache.arena(reader.leaves().get(0), "title", -1));
+            assertEquals(0, cache.count());
+        }
+    }
+
+    public void testReadsNormalizedText() throws IOException {
+        TextArenaCache cache = enabledCache();
+        int maxLength = randomBoolean() ? -1 : between(1, 20);
+        try (Directory directory = index(between(1, 200)); DirectoryReader reader = DirectoryReader.open(directory)) {
+            LeafReaderContext leaf = reader.leaves().get(0);
+            TextArena arena = cache.arena(leaf, "title", maxLength);
+            assertSame(arena, cache.arena(leaf, "title", maxLength));
+            assertNotSame(arena, cache.arena(leaf, "title", maxLength + 1));
+            CharsRefBuilder text = new CharsRefBuilder();
+            for (int doc = 0; doc < values.size(); doc++) {
+                String value = values.get(doc);
+                assertEquals(value != null, arena.read(doc, text));
+                if (value != null) {
+                    assertEquals(NormalizeProcessor.normalize(value, maxLength), text.toString());
+                }
+            }
+        }
+    }
+
+    public void testBreaker() throws Exception {
+        TextArenaCache cache = enabledCache();
+        LimitedBreaker breaker = new LimitedBreaker(0);
+        cache.setCircuitBreaker(breaker);
+        try (Directory directory = index(100)) {
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReaderContext leaf = reader.leaves().get(0);
+                // 超出breaker时不分配也不缓存，segment关闭前不再重试
+                assertNull(cache.arena(leaf, "title", -1));
+                assertEquals(0, breaker.getUsed());
+                breaker.setLimit(Long.MAX_VALUE);
+                assertNull(cache.arena(leaf, "title", -1));
+                // 计入的字节与实际分配的一致
+                long bytes = cache.arena(leaf, "title", 10).ramBytesUsed();
+                assertEquals(bytes, breaker.getUsed());
+                assertEquals(bytes, cache.sizeInBytes());
+            }
+            assertEquals(0, cache.count());
+            // segment关闭后arena被回收、direct buffer释放时才从breaker中减去
+            assertBusy(() -> {
+                System.gc();
+                cache.releaseCollected();
+                assertEquals(0, breaker.getUsed());
+            });
+        }
+    }
+
+    /**
+     * 从缓存中移除的arena仍可能被搜索读取，仍被引用时breaker保留其内存
+     */
+    public void testReservationKeptWhileReferenced() throws IOException {
+        TextArenaCache cache = enabledCache();
+        LimitedBreaker breaker = new LimitedBreaker(Long.MAX_VALUE);
+        cache.setCircuitBreaker(breaker);
+        try (Directory directory = index(between(1, 100))) {
+            TextArena arena;
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                arena = cache.arena(reader.leaves().get(0), "title", -1);
+            }
+            assertEquals(0, cache.count());
+            System.gc();
+            cache.releaseCollected();
+            assertEquals(arena.ramBytesUsed(), breaker.getUsed());
+            CharsRefBuilder text = new CharsRefBuilder();
+            for (int doc = 0; doc < values.size(); doc++) {
+                assertEquals(values.get(doc) != null, arena.read(doc, text));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.elasticsearch.plugin.score.concurrent;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LeafExecutorTests extends ESTestCase {
+
+    private ExecutorService pool;
+    private LeafExecutor executor;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        pool = Executors.newFixedThreadPool(2);
+        executor = new LeafExecutor(Settings.EMPTY);
+        executor.setExecutor(pool);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        terminate(pool);
+        super.tearDown();
+    }
+
+    private static List<Callable<Integer>> tasks(int count, Set<Thread> threads) {
+        List<Callable<Integer>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int value = i;
+            tasks.add(() -> {
+                threads.add(Thread.currentThread());
+                return value * 2;
+            });
+        }
+        return tasks;
+    }
+
+    public void testResultsInOrder() throws IOException {
+        int count = between(1, 50);
+        List<Integer> results = executor.invokeAll(tasks(count, ConcurrentHashMap.newKeySet()), between(1, 4), () -> false);
+        assertEquals(count, results.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i * 2, (int) results.get(i));
+        }
+    }
+
+    /**
+     * 线程池被其他请求占满时，search线程做完所有任务后直接返回，排队的分叉被取消而不是等待
+     */
+    public void testQueuedForksAreNotWaitedFor() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch busy = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            pool.submit(() -> {
+                busy.countDown();
+                release.await();
+                return null;
+            });
+        }
+        busy.await();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        try {
+            List<Integer> results = executor.invokeAll(tasks(between(1, 20), threads), 4, () -> false);
+            assertEquals(0, (int) results.get(0));
+            assertEquals(1, threads.size());
+            assertTrue(threads.contains(Thread.currentThread()));
+        } finally {
+            release.countDown();
+        }
+        // 取消的分叉之后不再执行
+        AtomicInteger after = new AtomicInteger();
+        pool.submit(after::incrementAndGet).get(10, TimeUnit.SECONDS);
+        assertEquals(1, after.get());
+        assertEquals(1, threads.size());
+    }
+
+    public void testFailurePropagates() {
+        List<Callable<Integer>> tasks = tasks(between(2, 20), ConcurrentHashMap.newKeySet());
+        tasks.set(randomIntBetween(0, tasks.size() - 1), () -> {
+            throw new IOException("boom");
+        });
+        IOException e = expectThrows(IOException.class, () -> executor.invokeAll(tasks, between(1, 4), () -> false));
+        assertEquals("boom", e.getMessage());
+    }
+
+    public void testCancelled() {
+        expectThrows(TaskCancelledException.class,
+            () -> executor.invokeAll(tasks(between(1, 20), ConcurrentHashMap.newKeySet()), between(1, 4), () -> true));
+    }
+}
@@ -0,0 +1,85 @@
+package org.elasticsearch.plugin.score.impl;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+public class CharSignatureTests extends ESTestCase {
+
+    /**
+     * 成对的query/文本字母表，部分字符重叠，使签名时有时无公共位
+     */
+    private static final String[][] ALPHABETS = {
+        {"abc", "cde"},
+        {"ab ", "xyz "},
+        {"测试新建", "新建重复"},
+        {"abcdefghij", "hijklmnopq"},
+    };
+
+    private static char[] randomChars(String alphabet, int length) {
+        return HorspoolTests.randomString(alphabet, length).toCharArray();
+    }
+
+    private static boolean noCommonUnigram(long query, char[] text) {
+        return (CharSignature.unigrams(text, text.length) & query) == 0;
+    }
+
+    private static boolean noCommonBigram(long query, char[] text) {
+        long packed = CharSignature.packBigrams(CharSignature.bigrams(text, text.length), text.length);
+        assertEquals(text.length, CharSignature.lengthOf(packed));
+        return (CharSignature.bigramsOf(packed) & CharSignature.bigramsOf(query)) == 0;
+    }
+
+    /**
+     * 签名只会多报：没有公共字符时分值为0，没有公共字符对时分值不超过单字符匹配的上界
+     */
+    public void testMatchScoreBounds() {
+        for (int round = 0; round < 10000; round++) {
+            String[] alphabets = ALPHABETS[round % ALPHABETS.length];
+            MatchScore.MatchsMetaInfo metaInfo = MatchScore.MatchsMetaInfo.parseQuery(
+                new String(randomChars(alphabets[0], between(0, 20))));
+            char[] text = randomChars(alphabets[1], between(0, 60));
+            long score = MatchScore.score(text, text.length, metaInfo);
+            if (noCommonUnigram(metaInfo.unigramSignature(), text)) {
+                assertEquals(0L, score);
+            }
+            if (noCommonBigram(metaInfo.bigramSignature(), text)) {
+                assertTrue(score <= metaInfo.maxScore(text.length, 1));
+            }
+        }
+    }
+
+    public void testHorspoolBounds() {
+        for (int round = 0; round < 10000; round++) {
+            String[] alphabets = ALPHABETS[round % ALPHABETS.length];
+            Horspool.Pattern pattern = Horspool.Pattern.compile(new String(randomChars(alphabets[0], between(0, 20))));
+            Horspool.Matcher matcher = pattern.matcher(Horspool.MAX_TEXT_LENGTH);
+            char[] text = randomChars(alphabets[1], between(0, 60));
+            long score = matcher.score(text, text.length);
+            if (noCommonUnigram(pattern.unigramSignature(), text)) {
+                assertEquals(0L, score);
+            }
+            if (noCommonBigram(pattern.bigramSignature(), text)) {
+                assertTrue(score <= matcher.maxScore(text.length, 1));
+            }
+        }
+    }
+
+    public void testTermScoreBounds() throws IOException {
+        for (int round = 0; round < 2000; round++) {
+            String[] alphabets = ALPHABETS[round % ALPHABETS.length];
+            TermScore.TermsMetaInfo metaInfo = TermScore.TermsMetaInfo.parseQuery(
+                new String(randomChars(alphabets[0], between(0, 20))));
+            char[] text = randomChars(alphabets[1], between(0, 60));
+            if (noCommonUnigram(metaInfo.unigramSignature(), text)) {
+                assertEquals(0L, TermScore.scoreWrapper(new String(text), metaInfo));
+            }
+        }
+    }
+
+    public void testLengthOverflow() {
+        long packed = CharSignature.packBigrams(CharSignature.ALL, CharSignature.MAX_LENGTH + between(0, 10));
+        assertEquals(-1, CharSignature.lengthOf(packed));
+        assertEquals(0, CharSignature.lengthOf(CharSignature.packBigrams(0L, 0)));
+    }
+}
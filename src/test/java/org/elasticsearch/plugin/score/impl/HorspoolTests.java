@@ -0,0 +1,57 @@
+package org.elasticsearch.plugin.score.impl;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Locale;
+
+public class HorspoolTests extends ESTestCase {
+
+    private static final String[] ALPHABETS = {"ab", "abc ", "测试新建重复", "aAbB测试 x", "abcdefghijklmnopqrstuvwxyz0123456789"};
+
+    public void testScore() {
+        assertEquals(96L, Horspool.calHorspoolScoreWrapper("测试新建", "测试"));
+        assertEquals(0L, Horspool.calHorspoolScoreWrapper("测试新建", " "));
+        assertEquals(0L, Horspool.calHorspoolScoreWrapper(null, "测试"));
+    }
+
+    /**
+     * 预编译的匹配器与原实现的分值一致，覆盖位并行(<=64)、逐位置(<=128)和按字符串去重(>128)三种模式串
+     */
+    public void testMatchesReference() {
+        for (int round = 0; round < 20000; round++) {
+            String alphabet = ALPHABETS[round % ALPHABETS.length];
+            int maxPatternLength = round % 10 == 0 ? 200 : 70;
+            String pattern = randomString(alphabet, between(0, maxPatternLength - 1));
+            String text = randomString(alphabet, between(0, 79));
+            int maxTextLength = randomBoolean() ? Horspool.MAX_TEXT_LENGTH : between(1, 80);
+            char[] lowerText = text.toLowerCase(Locale.ROOT).toCharArray();
+            Horspool.Matcher matcher = Horspool.Pattern.compile(pattern).matcher(maxTextLength);
+            long expected = Horspool.calHorspoolScoreWrapper(text, pattern, maxTextLength);
+            long actual = matcher.score(lowerText, lowerText.length);
+            String message = "pattern [" + pattern + "] text [" + text + "] max_text_length [" + maxTextLength + "]";
+            assertEquals(message, expected, actual);
+            assertTrue(message, actual <= matcher.maxScore(lowerText.length));
+        }
+    }
+
+    /**
+     * 同一个匹配器连续评分多个文本时不受之前文本的影响
+     */
+    public void testMatcherReuse() {
+        String pattern = randomString(ALPHABETS[2], between(1, 100));
+        Horspool.Matcher matcher = Horspool.Pattern.compile(pattern).matcher(Horspool.MAX_TEXT_LENGTH);
+        for (int i = 0; i < 1000; i++) {
+            String text = randomString(ALPHABETS[2], between(0, 40));
+            char[] chars = text.toCharArray();
+            assertEquals(Horspool.calHorspoolScoreWrapper(text, pattern), matcher.score(chars, chars.length));
+        }
+    }
+
+    static String randomString(String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random().nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package org.elasticsearch.plugin.score.impl;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.List;
+
+public class MatchScoreTests extends ESTestCase {
+
+    private static final String[] ALPHABETS = {"a", "ab", "abc ", "测试新建重复", "abcdefghijklmnopqrstuvwxyz0123456789"};
+
+    public void testScore() {
+        MatchScore.MatchsMetaInfo metaInfo = MatchScore.MatchsMetaInfo.parseQuery("有重复字符串哈哈哈的重复测试串");
+        // 测试 字符 的 重复测试: 4^2 + 4^2 + 4 + 4^4
+        assertEquals(292L, MatchScore.scoreWrapper("测试字符小的误差重复测试", metaInfo));
+        assertEquals(0L, MatchScore.scoreWrapper("", metaInfo));
+        assertEquals(0L, MatchScore.scoreWrapper("测试", MatchScore.MatchsMetaInfo.parseQuery("")));
+    }
+
+    /**
+     * 后缀自动机与逐个起点匹配的原实现分值一致，且不超过按长度估计的上界
+     */
+    public void testMatchesReference() {
+        for (int round = 0; round < 20000; round++) {
+            String alphabet = ALPHABETS[round % ALPHABETS.length];
+            String query = HorspoolTests.randomString(alphabet, between(0, 39));
+            String value = HorspoolTests.randomString(alphabet, between(0, 199));
+            MatchScore.MatchsMetaInfo metaInfo = MatchScore.MatchsMetaInfo.parseQuery(query);
+            char[] values = value.toCharArray();
+            long actual = MatchScore.score(values, values.length, metaInfo);
+            String message = "query [" + query + "] value [" + value + "]";
+            assertEquals(message, referenceScore(values, values.length, metaInfo), actual);
+            assertTrue(message, actual <= metaInfo.maxScore(values.length));
+        }
+    }
+
+    public void testPrefixOnly() {
+        MatchScore.MatchsMetaInfo metaInfo = MatchScore.MatchsMetaInfo.parseQuery("abcab");
+        char[] values = "abcabxabcab".toCharArray();
+        int length = between(0, values.length);
+        assertEquals(referenceScore(values, length, metaInfo), MatchScore.score(values, length, metaInfo));
+    }
+
+    /**
+     * 逐个起点匹配的原实现：取query中以values[j]开头的最长子串，计分后跳到最远的失配位置继续
+     */
+    private static long referenceScore(char[] values, int valueLength, MatchScore.MatchsMetaInfo metaInfo) {
+        char[] queryChars = metaInfo.getQueryChars();
+        long matchScore = 0;
+        for (int j = 0; j < valueLength; ) {
+            List<Integer> queryIndexs = metaInfo.getCharIndexs().get(values[j]);
+            if (queryIndexs == null) {
+                j++;
+                continue;
+            }
+            int maxLength = 0;
+            int maxUnmatch = -1;
+            for (int queryIndex : queryIndexs) {
+                int firstUnmatch = j;
+                while (firstUnmatch < valueLength && queryIndex < queryChars.length
+                    && values[firstUnmatch] == queryChars[queryIndex]) {
+                    firstUnmatch++;
+                    queryIndex++;
+                }
+                maxLength = Math.max(maxLength, firstUnmatch - j);
+                maxUnmatch = Math.max(maxUnmatch, firstUnmatch);
+            }
+            matchScore += Math.pow(4, maxLength);
+            j = maxUnmatch;
+        }
+        return matchScore;
+    }
+}
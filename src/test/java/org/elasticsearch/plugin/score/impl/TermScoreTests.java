@@ -0,0 +1,103 @@
+package org.elasticsearch.plugin.score.impl;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class TermScoreTests extends ESTestCase {
+
+    private static final String[][] VOCABULARIES = {
+        {"a", "b"},
+        {"asdas", "100.00", "测试", "重复", "the"},
+        {"search", "score", "lucene", "elastic", "x1", "7", "Query", "测", "试"},
+    };
+
+    public void testScore() throws IOException {
+        TermScore.TermsMetaInfo metaInfo = TermScore.TermsMetaInfo.parseQuery("asdas 100.00 有重复字符串哈哈哈的重复测试串");
+        String value = "asdas 100.00测试字符小的误差重复测试";
+        // asdas 100.00 / 测试 / 字符 / 的 / 重复测试: 4^2 + 4^2 + 4^2 + 4 + 4^4
+        assertEquals(308L, TermScore.scoreWrapper(value, metaInfo));
+        assertEquals(0L, TermScore.scoreWrapper("", metaInfo));
+        assertEquals(0L, TermScore.scoreWrapper("asdas", TermScore.TermsMetaInfo.parseQuery("")));
+    }
+
+    /**
+     * 边分词边匹配与物化term列表后逐个起点匹配的原实现分值一致，且不超过按term数估计的上界
+     */
+    public void testMatchesReference() throws IOException {
+        for (int round = 0; round < 5000; round++) {
+            String[] vocabulary = VOCABULARIES[round % VOCABULARIES.length];
+            String query = randomText(vocabulary, between(0, 12));
+            String value = randomText(vocabulary, between(0, 60));
+            TermScore.TermsMetaInfo metaInfo = TermScore.TermsMetaInfo.parseQuery(query);
+            long actual = TermScore.scoreWrapper(value, metaInfo);
+            String message = "query [" + query + "] value [" + value + "]";
+            assertEquals(message, referenceScore(value, metaInfo), actual);
+            assertTrue(message, actual <= metaInfo.maxScore(value.length()));
+        }
+    }
+
+    /**
+     * 同一个matcher连续评分多个文本时不受之前文本的影响
+     */
+    public void testMatcherReuse() throws IOException {
+        TermScore.TermsMetaInfo metaInfo = TermScore.TermsMetaInfo.parseQuery(randomText(VOCABULARIES[1], 8));
+        TermScore.Matcher matcher = metaInfo.matcher();
+        for (int i = 0; i < 1000; i++) {
+            String value = randomText(VOCABULARIES[1], between(0, 30)).toLowerCase(Locale.ROOT);
+            char[] chars = value.toCharArray();
+            assertEquals(referenceScore(value, metaInfo), matcher.score(chars, chars.length));
+        }
+    }
+
+    private static String randomText(String[] vocabulary, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(randomFrom(vocabulary)).append(randomFrom(" ", " ", ", ", ""));
+        }
+        return text.toString();
+    }
+
+    /**
+     * 物化term列表后逐个起点匹配的原实现：取query中以terms[j]开头的最长phase，计分后跳到最远的失配位置继续
+     */
+    private static long referenceScore(String value, TermScore.TermsMetaInfo metaInfo) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream ts = TermScore.DEFAULT_ANALYZER.tokenStream("", value.toLowerCase(Locale.ROOT))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms.add(term.toString());
+            }
+            ts.end();
+        }
+        long score = 0;
+        for (int j = 0; j < terms.size(); ) {
+            List<Integer> queryIndexs = metaInfo.termIndexs.get(terms.get(j));
+            if (queryIndexs == null) {
+                j++;
+                continue;
+            }
+            int maxLength = 0;
+            int maxUnmatch = -1;
+            for (int queryIndex : queryIndexs) {
+                int firstUnmatch = j;
+                while (firstUnmatch < terms.size() && queryIndex < metaInfo.terms.size()
+                    && terms.get(firstUnmatch).equals(metaInfo.terms.get(queryIndex))) {
+                    firstUnmatch++;
+                    queryIndex++;
+                }
+                maxLength = Math.max(maxLength, firstUnmatch - j);
+                maxUnmatch = Math.max(maxUnmatch, firstUnmatch);
+            }
+            score += Math.pow(4, maxLength);
+            j = maxUnmatch;
+        }
+        return score;
+    }
+}
@@ -0,0 +1,58 @@
+package org.elasticsearch.plugin.score.ingest;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.RandomDocumentPicks;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class NormalizeProcessorTests extends ESTestCase {
+
+    private static NormalizeProcessor create(Object field, Object... config) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("field", field);
+        for (int i = 0; i < config.length; i += 2) {
+            map.put((String) config[i], config[i + 1]);
+        }
+        return new NormalizeProcessor.Factory().create(null, "tag", map);
+    }
+
+    public void testNormalize() throws Exception {
+        Map<String, Object> source = new HashMap<>();
+        source.put("title", "Hello World");
+        source.put("count", 12);
+        IngestDocument document = RandomDocumentPicks.randomIngestDocument(random(), source);
+        create(Arrays.asList("title", "count"), "max_length", 7).execute(document);
+        assertEquals("hello w", document.getFieldValue("title_expert_norm_7", String.class));
+        assertEquals("12", document.getFieldValue("count_expert_norm_7", String.class));
+
+        create("title", "max_length", -1).execute(document);
+        assertEquals("hello world", document.getFieldValue("title_expert_norm", String.class));
+    }
+
+    public void testMultiValued() throws Exception {
+        Map<String, Object> source = new HashMap<>();
+        source.put("tags", Arrays.asList("ABC", null, "Déjà Vu"));
+        IngestDocument document = RandomDocumentPicks.randomIngestDocument(random(), source);
+        create("tags", "max_length", 5).execute(document);
+        assertEquals(Arrays.asList("abc", "déjà "), document.getFieldValue("tags_expert_norm_5", Object.class));
+    }
+
+    public void testMissing() throws Exception {
+        IngestDocument document = RandomDocumentPicks.randomIngestDocument(random(), new HashMap<>());
+        create("title").execute(document);
+        assertFalse(document.hasField("title_expert_norm_30"));
+        expectThrows(IllegalArgumentException.class, () -> create("title", "ignore_missing", false).execute(document));
+    }
+
+    public void testInvalidField() {
+        ElasticsearchException e = expectThrows(ElasticsearchException.class,
+            () -> create(Arrays.asList("title", 1)));
+        assertEquals("[field] must be a string or a list of strings", e.getMessage());
+        expectThrows(ElasticsearchException.class, () -> create(Arrays.asList()));
+        expectThrows(ElasticsearchException.class, () -> create(1));
+    }
+}
@@ -0,0 +1,198 @@
+package org.elasticsearch.plugin.score.mapper;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.plugin.score.CostBudget;
+import org.elasticsearch.plugin.score.FieldScorer;
+import org.elasticsearch.plugin.score.impl.TermScore;
+import org.elasticsearch.plugin.score.ingest.NormalizeProcessor;
+import org.elasticsearch.plugin.score.stats.ScriptStats;
+import org.elasticsearch.plugin.score.stats.SlowScoreTracer;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class TermSequenceScorerTests extends ESTestCase {
+
+    private static final String[] WORDS = {"Search", "score", "测试", "新建", "the", "Lucene", "abc", "x1"};
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private LeafReader leaf;
+    /**
+     * 各文档的文本，没有序列时为null
+     */
+    private List<String> texts;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = newDirectory();
+        texts = new ArrayList<>();
+        // 按相邻segment合并，文档号与写入顺序一致
+        try (IndexWriter writer = new IndexWriter(directory,
+                newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+            for (int i = between(1, 300); i > 0; i--) {
+                String text = rarely() ? null : randomText(between(0, 20));
+                texts.add(text);
+                writer.addDocument(text == null ? new Document() : sequenceDoc(text));
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        leaf = getOnlyLeafReader(reader);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+        super.tearDown();
+    }
+
+    private static String randomText(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(randomFrom(WORDS)).append(randomFrom(" ", ", ", ""));
+        }
+        return text.toString();
+    }
+
+    /**
+     * 与 TermSequenceFieldMapper 写入的字段相同
+     */
+    private static Document sequenceDoc(String text) throws IOException {
+        Document document = new Document();
+        TermSequenceFieldMapper.TermSequenceField sequence =
+            new TermSequenceFieldMapper.TermSequenceField("title" + TermSequenceFieldMapper.SEQUENCE_SUFFIX);
+        try (TokenStream ts = TermScore.DEFAULT_ANALYZER.tokenStream("title", NormalizeProcessor.normalize(text, -1))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                BytesRef token = new BytesRef(term);
+                sequence.add(token);
+                document.add(new SortedSetDocValuesField("title", token));
+            }
+            ts.end();
+        }
+        document.add(sequence);
+        return document;
+    }
+
+    private TermSequenceScorer scorer(TermScore.TermsMetaInfo metaInfo, ScriptStats stats) throws IOException {
+        return scorer(metaInfo, stats, new SlowScoreTracer(Settings.EMPTY));
+    }
+
+    private TermSequenceScorer scorer(TermScore.TermsMetaInfo metaInfo, ScriptStats stats, SlowScoreTracer tracer)
+        throws IOException {
+        return new TermSequenceScorer(leaf, "title", metaInfo, metaInfo.matcher(), new MissingScorer(),
+            CostBudget.UNLIMITED, stats, tracer.scope("term_score", "index", 3, "title", "query", 0));
+    }
+
+    /**
+     * 按序列评分与对文本分词后评分一致
+     */
+    public void testMatchesTextScore() throws IOException {
+        TermScore.TermsMetaInfo metaInfo = TermScore.TermsMetaInfo.parseQuery(randomText(between(1, 6)));
+        TermSequenceScorer scorer = scorer(metaInfo, new ScriptStats());
+        for (int doc = 0; doc < texts.size(); doc++) {
+            assertEquals(texts.get(doc), expected(doc, metaInfo), scorer.score(doc), 0d);
+        }
+        int[] block = new int[between(1, 32)];
+        for (int start = 0; start < texts.size(); start += block.length) {
+            int count = Math.min(block.length, texts.size() - start);
+            for (int i = 0; i < count; i++) {
+                block[i] = start + i;
+            }
+            scorer.loadBlock(block, count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected(block[i], metaInfo), scorer.blockScore(i), 0d);
+            }
+        }
+    }
+
+    public void testStats() throws IOException {
+        TermScore.TermsMetaInfo metaInfo = TermScore.TermsMetaInfo.parseQuery("search score 测试");
+        ScriptStats stats = new ScriptStats();
+        TermSequenceScorer scorer = scorer(metaInfo, stats);
+        for (int doc = 0; doc < texts.size(); doc++) {
+            scorer.score(doc);
+        }
+        scorer.loadBlock(new int[] {0}, 1);
+        scorer.blockScore(0);
+        ScriptStats.Snapshot snapshot = stats.snapshot();
+        assertTrue(snapshot.loadNanos() > 0);
+        assertTrue(snapshot.algorithmNanos() > 0);
+    }
+
+    /**
+     * 阈值为0时记录每个按序列评分的文档，值长度为term数
+     */
+    public void testSlowScoresTraced() throws IOException {
+        SlowScoreTracer tracer = new SlowScoreTracer(Settings.builder()
+            .put(SlowScoreTracer.THRESHOLD_SETTING.getKey(), "0")
+            .put(SlowScoreTracer.SIZE_SETTING.getKey(), texts.size())
+            .build());
+        TermSequenceScorer scorer = scorer(TermScore.TermsMetaInfo.parseQuery("search score 测试"), new ScriptStats(),
+            tracer);
+        int stored = 0;
+        for (int doc = 0; doc < texts.size(); doc++) {
+            scorer.score(doc);
+            if (texts.get(doc) != null) {
+                stored++;
+            }
+        }
+        List<SlowScoreTracer.Record> records = tracer.records();
+        assertEquals(stored, records.size());
+        Map<String, Object> record = XContentHelper.convertToMap(BytesReference.bytes(
+            records.get(0).toXContent(XContentFactory.jsonBuilder(), ToXContent.EMPTY_PARAMS)), false).v2();
+        assertEquals(3, record.get("shard"));
+        int doc = (Integer) record.get("doc");
+        assertEquals(terms(texts.get(doc)), record.get("value_length"));
+    }
+
+    private static int terms(String text) throws IOException {
+        int terms = 0;
+        try (TokenStream ts = TermScore.DEFAULT_ANALYZER.tokenStream("title", text)) {
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms++;
+            }
+            ts.end();
+        }
+        return terms;
+    }
+
+    private double expected(int doc, TermScore.TermsMetaInfo metaInfo) {
+        String text = texts.get(doc);
+        if (text == null) {
+            return FieldScorer.MISSING;
+        }
+        return TermScore.scoreWrapper(NormalizeProcessor.normalize(text, -1), metaInfo);
+    }
+
+    /**
+     * 没有序列的文档缺少字段
+     */
+    private static final class MissingScorer extends FieldScorer {
+        @Override
+        public double score(int docId) {
+            return MISSING;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.elasticsearch.plugin.score.query;
+
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.Version;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.plugin.score.ExpertScriptPlugin;
+import org.elasticsearch.plugin.score.MatchScoreFactory;
+import org.elasticsearch.plugin.score.ScoreTestUtils;
+import org.elasticsearch.plugin.score.TermScoreFactory;
+import org.elasticsearch.search.SearchModule;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.test.EqualsHashCodeTestUtils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Collections.singletonList;
+import static org.elasticsearch.common.xcontent.ToXContent.EMPTY_PARAMS;
+
+public class ExpertMatchQueryBuilderTests extends ESTestCase {
+
+    private static final SearchModule SEARCH_MODULE = new SearchModule(Settings.EMPTY, false,
+        singletonList(new ExpertScriptPlugin(Settings.EMPTY)));
+
+    @Override
+    protected NamedWriteableRegistry writableRegistry() {
+        return new NamedWriteableRegistry(SEARCH_MODULE.getNamedWriteables());
+    }
+
+    @Override
+    protected NamedXContentRegistry xContentRegistry() {
+        return new NamedXContentRegistry(SEARCH_MODULE.getNamedXContents());
+    }
+
+    private static ExpertMatchQueryBuilder randomBuilder() {
+        QueryBuilder query = randomBoolean() ? new TermQueryBuilder("tag", randomAlphaOfLength(5))
+            : new MatchQueryBuilder("body", randomAlphaOfLength(5));
+        Map<String, Object> params = ScoreTestUtils.params(randomAlphaOfLength(8), "title^2", "body");
+        if (randomBoolean()) {
+            params.put("max_length", between(1, 100));
+        }
+        ExpertMatchQueryBuilder builder = new ExpertMatchQueryBuilder(query,
+            randomFrom(MatchScoreFactory.NAME, TermScoreFactory.NAME), params);
+        builder.topK(between(0, 100)).parallelism(between(1, 4));
+        if (randomBoolean()) {
+            builder.boost(between(1, 10) / 2f);
+        }
+        if (randomBoolean()) {
+            builder.queryName(randomAlphaOfLength(4));
+        }
+        return builder;
+    }
+
+    private static ExpertMatchQueryBuilder copy(ExpertMatchQueryBuilder builder, QueryBuilder query, String script,
+                                                Map<String, Object> params) {
+        return new ExpertMatchQueryBuilder(query, script, params).topK(builder.topK())
+            .parallelism(builder.parallelism()).boost(builder.boost()).queryName(builder.queryName());
+    }
+
+    private static ExpertMatchQueryBuilder mutate(ExpertMatchQueryBuilder builder) {
+        switch (between(0, 6)) {
+            case 0:
+                return copy(builder, new TermQueryBuilder("other", randomAlphaOfLength(6)), builder.script(),
+                    builder.params());
+            case 1:
+                return copy(builder, builder.query(), builder.script() + "_other", builder.params());
+            case 2:
+                Map<String, Object> params = new HashMap<>(builder.params());
+                params.put("query", randomAlphaOfLength(9));
+                return copy(builder, builder.query(), builder.script(), params);
+            case 3:
+                return copy(builder, builder.query(), builder.script(), builder.params()).topK(builder.topK() + 1);
+            case 4:
+                return copy(builder, builder.query(), builder.script(), builder.params())
+                    .parallelism(builder.parallelism() + 1);
+            case 5:
+                return copy(builder, builder.query(), builder.script(), builder.params()).boost(builder.boost() + 1);
+            default:
+                return copy(builder, builder.query(), builder.script(), builder.params())
+                    .queryName(randomAlphaOfLength(5));
+        }
+    }
+
+    private ExpertMatchQueryBuilder copyNamedWriteable(ExpertMatchQueryBuilder builder) throws IOException {
+        return copyInstance(builder, writableRegistry(), StreamOutput::writeNamedWriteable,
+            in -> (ExpertMatchQueryBuilder) in.readNamedWriteable(QueryBuilder.class), Version.CURRENT);
+    }
+
+    private QueryBuilder parse(XContentBuilder source) throws IOException {
+        try (XContentParser parser = createParser(source)) {
+            return AbstractQueryBuilder.parseInnerQueryBuilder(parser);
+        }
+    }
+
+    public void testSerialization() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            ExpertMatchQueryBuilder original = randomBuilder();
+            ExpertMatchQueryBuilder copy = copyNamedWriteable(original);
+            assertEquals(original, copy);
+            assertEquals(original.hashCode(), copy.hashCode());
+            assertNotSame(original, copy);
+        }
+    }
+
+    public void testXContentRoundTrip() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            ExpertMatchQueryBuilder original = randomBuilder();
+            XContentBuilder source = XContentFactory.contentBuilder(randomFrom(XContentType.values()));
+            original.toXContent(source, EMPTY_PARAMS);
+            assertEquals(original, parse(source));
+        }
+    }
+
+    public void testEqualsAndHashCode() {
+        for (int i = 0; i < 20; i++) {
+            EqualsHashCodeTestUtils.checkEqualsAndHashCode(randomBuilder(), this::copyNamedWriteable,
+                ExpertMatchQueryBuilderTests::mutate);
+        }
+    }
+
+    public void testParseErrors() throws IOException {
+        XContentBuilder noQuery = XContentFactory.jsonBuilder().startObject().startObject(ExpertMatchQueryBuilder.NAME)
+            .field("script", MatchScoreFactory.NAME).endObject().endObject();
+        ParsingException e = expectThrows(ParsingException.class, () -> parse(noQuery));
+        assertEquals("[expert_match] requires [query]", e.getMessage());
+
+        XContentBuilder unknown = XContentFactory.jsonBuilder().startObject().startObject(ExpertMatchQueryBuilder.NAME)
+            .field("script", MatchScoreFactory.NAME).field("top_n", 10).endObject().endObject();
+        e = expectThrows(ParsingException.class, () -> parse(unknown));
+        assertEquals("[expert_match] query does not support [top_n]", e.getMessage());
+
+        ExpertMatchQueryBuilder builder = randomBuilder();
+        expectThrows(IllegalArgumentException.class, () -> builder.topK(-1));
+        expectThrows(IllegalArgumentException.class, () -> builder.parallelism(0));
+    }
+}
@@ -0,0 +1,323 @@
+package org.elasticsearch.plugin.score.query;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FilterWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchTask;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.ParsedQuery;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.plugin.score.MatchScoreFactory;
+import org.elasticsearch.plugin.score.ScoreTestUtils;
+import org.elasticsearch.plugin.score.concurrent.LeafExecutor;
+import org.elasticsearch.plugin.score.concurrent.SearchCancellation;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.test.TestSearchContext;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.emptyMap;
+
+public class ExpertMatchQueryTests extends ESTestCase {
+
+    private static final String[] WORDS = {"测试", "新建", "重复", "字符", "abc", "score"};
+    private static final String QUERY = "新建测试字符abc";
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private CountingExecutor pool;
+    private LeafExecutor executor;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = newDirectory();
+        // 每次提交一个segment，不合并
+        try (IndexWriter writer = new IndexWriter(directory,
+                newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            int segments = between(3, 8);
+            for (int segment = 0; segment < segments; segment++) {
+                int docs = between(1, 300);
+                for (int i = 0; i < docs; i++) {
+                    StringBuilder title = new StringBuilder();
+                    for (int w = between(0, 6); w > 0; w--) {
+                        title.append(randomFrom(WORDS));
+                    }
+                    Document document = ScoreTestUtils.sourceDoc("title", title.toString());
+                    document.add(new StringField("tag", randomBoolean() ? "a" : "b", Field.Store.NO));
+                    writer.addDocument(document);
+                }
+                writer.commit();
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        pool = new CountingExecutor(3);
+        executor = new LeafExecutor(Settings.EMPTY);
+        executor.setExecutor(pool);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+        terminate(pool);
+        super.tearDown();
+    }
+
+    private ExpertMatchQuery query(Query inner, int topK, int parallelism) {
+        Map<String, Object> params = ScoreTestUtils.params(QUERY, "title");
+        return new ExpertMatchQuery(inner, MatchScoreFactory.NAME, params,
+            ScoreTestUtils.factory(MatchScoreFactory.NAME, params), topK, parallelism, executor);
+    }
+
+    private Map<Integer, Float> scores(Query query) throws IOException {
+        Map<Integer, Float> scores = new HashMap<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            scores.put(scoreDoc.doc, scoreDoc.score);
+        }
+        return scores;
+    }
+
+    public void testParallelScoresMatchSequential() throws IOException {
+        Query inner = randomBoolean() ? new MatchAllDocsQuery() : new TermQuery(new Term("tag", "a"));
+        Map<Integer, Float> sequential = scores(query(inner, 0, 1));
+        assertEquals(searcher.count(inner), sequential.size());
+        assertEquals(sequential, scores(query(inner, 0, between(2, 4))));
+        assertEquals(0, pool.running.get());
+    }
+
+    public void testInnerScorerCreatedOnSearchThread() throws IOException {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        Query inner = new ThreadRecordingQuery(new TermQuery(new Term("tag", "a")), threads);
+        searcher.search(query(inner, 0, 4), 10);
+        assertEquals(1, threads.size());
+        assertTrue(threads.contains(Thread.currentThread()));
+    }
+
+    public void testNoScoringAfterCollectionFails() {
+        Query query = query(new MatchAllDocsQuery(), 0, 4);
+        RuntimeException e = expectThrows(RuntimeException.class, () -> searcher.search(query, new SimpleCollector() {
+            @Override
+            public void collect(int doc) {
+                throw new RuntimeException("stop");
+            }
+
+            @Override
+            public boolean needsScores() {
+                return true;
+            }
+        }));
+        assertEquals("stop", e.getMessage());
+        // 搜索返回时线程池中没有仍在评分的任务
+        assertEquals(0, pool.running.get());
+        assertEquals(0, pool.getQueue().size());
+    }
+
+    public void testTopKKeepsTopHits() throws IOException {
+        int k = between(1, 10);
+        TopDocs expected = searcher.search(query(new MatchAllDocsQuery(), 0, 1), k);
+        Query query = query(new MatchAllDocsQuery(), k, between(1, 4));
+        TopDocs pruned = inQueryPhase(queryPhase(query, k), () -> searcher.search(query, k));
+        assertEquals(expected.scoreDocs.length, pruned.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            assertEquals(expected.scoreDocs[i].score, pruned.scoreDocs[i].score, 0f);
+        }
+    }
+
+    /**
+     * 剪枝的文档以0分收集，其余文档的评分与不剪枝时一致
+     */
+    public void testPrunedDocsScoreZero() throws IOException {
+        Map<Integer, Float> expected = scores(query(new MatchAllDocsQuery(), 0, 1));
+        int k = between(1, 3);
+        Query query = query(new MatchAllDocsQuery(), k, between(1, 4));
+        Map<Integer, Float> pruned = inQueryPhase(queryPhase(query, k), () -> scores(query));
+        assertEquals(expected.keySet(), pruned.keySet());
+        for (Map.Entry<Integer, Float> entry : pruned.entrySet()) {
+            if (entry.getValue() != 0f) {
+                assertEquals(expected.get(entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    public void testCanPrune() {
+        Query query = query(new MatchAllDocsQuery(), 10, 1);
+        assertFalse(ExpertMatchQuery.canPrune(null, query, 10));
+        assertTrue(ExpertMatchQuery.canPrune(queryPhase(query, 10), query, 10));
+        assertTrue(ExpertMatchQuery.canPrune(queryPhase(new BoostQuery(query, 2f), 10), query, 10));
+        assertFalse(ExpertMatchQuery.canPrune(queryPhase(query, 11), query, 10));
+        assertFalse(ExpertMatchQuery.canPrune(queryPhase(new MatchAllDocsQuery(), 10), query, 10));
+        assertFalse(ExpertMatchQuery.canPrune(queryPhase(new ConstantScoreQuery(query), 10), query, 10));
+        assertFalse(ExpertMatchQuery.canPrune(queryPhase(query, 10).minimumScore(1f), query, 10));
+        assertFalse(ExpertMatchQuery.canPrune(queryPhase(query, 10)
+            .parsedPostFilter(new ParsedQuery(new TermQuery(new Term("tag", "a")))), query, 10));
+    }
+
+    /**
+     * 查询阶段带有post_filter时忽略top_k，所有文档都得到真实评分
+     */
+    public void testTopKIgnoredWithPostFilter() throws IOException {
+        Map<Integer, Float> expected = scores(query(new MatchAllDocsQuery(), 0, 1));
+        Query query = query(new MatchAllDocsQuery(), 1, between(1, 4));
+        SearchContext context = queryPhase(query, 1).parsedPostFilter(new ParsedQuery(new TermQuery(new Term("tag", "a"))));
+        assertEquals(expected, inQueryPhase(context, () -> scores(query)));
+    }
+
+    /**
+     * expert_match与其他should子句组合时，前k个结果取决于总分，不能只按expert评分剪枝
+     */
+    public void testTopKIgnoredInDisjunction() throws IOException {
+        int k = between(1, 3);
+        Query tag = new TermQuery(new Term("tag", "a"));
+        Query unpruned = new BooleanQuery.Builder().add(query(new MatchAllDocsQuery(), 0, 1), BooleanClause.Occur.SHOULD)
+            .add(tag, BooleanClause.Occur.SHOULD).build();
+        Query disjunction = new BooleanQuery.Builder()
+            .add(query(new MatchAllDocsQuery(), k, between(1, 4)), BooleanClause.Occur.SHOULD)
+            .add(tag, BooleanClause.Occur.SHOULD).build();
+        TopDocs expected = searcher.search(unpruned, k);
+        TopDocs actual = inQueryPhase(queryPhase(disjunction, k), () -> searcher.search(disjunction, k));
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+            assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+        }
+        assertEquals(scores(unpruned), inQueryPhase(queryPhase(disjunction, k), () -> scores(disjunction)));
+    }
+
+    /**
+     * top_k小于from + size时忽略top_k
+     */
+    public void testTopKIgnoredBelowPage() throws IOException {
+        Map<Integer, Float> expected = scores(query(new MatchAllDocsQuery(), 0, 1));
+        Query query = query(new MatchAllDocsQuery(), 1, between(1, 4));
+        assertEquals(expected, inQueryPhase(queryPhase(query, between(2, 10)), () -> scores(query)));
+    }
+
+    /**
+     * 模拟查询阶段：在当前线程记录查询阶段的context后执行搜索
+     */
+    private static <T> T inQueryPhase(SearchContext context, CheckedSupplier<T, IOException> search) throws IOException {
+        SearchCancellation cancellation = new SearchCancellation();
+        cancellation.onPreQueryPhase(context);
+        try {
+            return search.get();
+        } finally {
+            cancellation.onQueryPhase(context, 0);
+        }
+    }
+
+    /**
+     * TestSearchContext的from固定为0
+     */
+    private static SearchContext queryPhase(Query query, int size) {
+        TestSearchContext context = searchContext();
+        context.parsedQuery(new ParsedQuery(query));
+        context.setSize(size);
+        return context;
+    }
+
+    private static TestSearchContext searchContext() {
+        TestSearchContext context = new TestSearchContext((QueryShardContext) null);
+        context.setTask(new SearchTask(1, "transport", SearchAction.NAME, "", TaskId.EMPTY_TASK_ID, emptyMap()));
+        return context;
+    }
+
+    /**
+     * 记录创建内层scorer的线程
+     */
+    private static final class ThreadRecordingQuery extends Query {
+        private final Query query;
+        private final Set<Thread> threads;
+
+        ThreadRecordingQuery(Query query, Set<Thread> threads) {
+            this.query = query;
+            this.threads = threads;
+        }
+
+        @Override
+        public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+            return new FilterWeight(query.createWeight(searcher, needsScores, boost)) {
+                @Override
+                public Scorer scorer(LeafReaderContext context) throws IOException {
+                    threads.add(Thread.currentThread());
+                    return super.scorer(context);
+                }
+            };
+        }
+
+        @Override
+        public String toString(String field) {
+            return "recording(" + query.toString(field) + ")";
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return sameClassAs(other) && query.equals(((ThreadRecordingQuery) other).query);
+        }
+
+        @Override
+        public int hashCode() {
+            return classHash() ^ query.hashCode();
+        }
+    }
+
+    /**
+     * 统计正在执行的任务数，任务结束后才完成其Future
+     */
+    private static final class CountingExecutor extends ThreadPoolExecutor {
+        final AtomicInteger running = new AtomicInteger();
+
+        CountingExecutor(int threads) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new FutureTask<>(() -> {
+                running.incrementAndGet();
+                try {
+                    return callable.call();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.elasticsearch.plugin.score.rescore;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.plugin.score.ExpertScriptPlugin;
+import org.elasticsearch.plugin.score.MatchScoreFactory;
+import org.elasticsearch.plugin.score.ScoreTestUtils;
+import org.elasticsearch.plugin.score.TermScoreFactory;
+import org.elasticsearch.search.SearchModule;
+import org.elasticsearch.search.rescore.QueryRescoreMode;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.test.EqualsHashCodeTestUtils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Collections.singletonList;
+import static org.elasticsearch.common.xcontent.ToXContent.EMPTY_PARAMS;
+
+public class ExpertRescorerBuilderTests extends ESTestCase {
+
+    private static final SearchModule SEARCH_MODULE = new SearchModule(Settings.EMPTY, false,
+        singletonList(new ExpertScriptPlugin(Settings.EMPTY)));
+
+    @Override
+    protected NamedWriteableRegistry writableRegistry() {
+        return new NamedWriteableRegistry(SEARCH_MODULE.getNamedWriteables());
+    }
+
+    @Override
+    protected NamedXContentRegistry xContentRegistry() {
+        return new NamedXContentRegistry(SEARCH_MODULE.getNamedXContents());
+    }
+
+    private static ExpertRescorerBuilder randomBuilder() {
+        Map<String, Object> params = ScoreTestUtils.params(randomAlphaOfLength(8), "title^2", "body");
+        if (randomBoolean()) {
+            params.put("max_length", between(1, 100));
+        }
+        ExpertRescorerBuilder builder = new ExpertRescorerBuilder(randomFrom(MatchScoreFactory.NAME, TermScoreFactory.NAME),
+            params);
+        builder.queryWeight(between(0, 10) / 2f).rescoreQueryWeight(between(0, 10) / 2f)
+            .scoreMode(randomFrom(QueryRescoreMode.values())).parallelism(between(1, 4));
+        if (randomBoolean()) {
+            builder.windowSize(between(1, 1000));
+        }
+        return builder;
+    }
+
+    private static ExpertRescorerBuilder copy(ExpertRescorerBuilder builder, String script, Map<String, Object> params) {
+        ExpertRescorerBuilder copy = new ExpertRescorerBuilder(script, params).queryWeight(builder.queryWeight())
+            .rescoreQueryWeight(builder.rescoreQueryWeight()).scoreMode(builder.scoreMode())
+            .parallelism(builder.parallelism());
+        if (builder.windowSize() != null) {
+            copy.windowSize(builder.windowSize());
+        }
+        return copy;
+    }
+
+    private static ExpertRescorerBuilder mutate(ExpertRescorerBuilder builder) {
+        switch (between(0, 6)) {
+            case 0:
+                return copy(builder, builder.script() + "_other", builder.params());
+            case 1:
+                Map<String, Object> params = new HashMap<>(builder.params());
+                params.put("query", randomAlphaOfLength(9));
+                return copy(builder, builder.script(), params);
+            case 2:
+                return copy(builder, builder.script(), builder.params()).queryWeight(builder.queryWeight() + 1);
+            case 3:
+                return copy(builder, builder.script(), builder.params())
+                    .rescoreQueryWeight(builder.rescoreQueryWeight() + 1);
+            case 4:
+                return copy(builder, builder.script(), builder.params()).scoreMode(randomValueOtherThan(builder.scoreMode(),
+                    () -> randomFrom(QueryRescoreMode.values())));
+            case 5:
+                return copy(builder, builder.script(), builder.params()).parallelism(builder.parallelism() + 1);
+            default:
+                ExpertRescorerBuilder copy = copy(builder, builder.script(), builder.params());
+                copy.windowSize(builder.windowSize() == null ? 1 : builder.windowSize() + 1);
+                return copy;
+        }
+    }
+
+    private ExpertRescorerBuilder copyNamedWriteable(ExpertRescorerBuilder builder) throws IOException {
+        return copyInstance(builder, writableRegistry(), StreamOutput::writeNamedWriteable,
+            in -> (ExpertRescorerBuilder) in.readNamedWriteable(RescorerBuilder.class), Version.CURRENT);
+    }
+
+    private RescorerBuilder<?> parse(XContentBuilder source) throws IOException {
+        try (XContentParser parser = createParser(source)) {
+            parser.nextToken();
+            return RescorerBuilder.parseFromXContent(parser);
+        }
+    }
+
+    public void testSerialization() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            ExpertRescorerBuilder original = randomBuilder();
+            ExpertRescorerBuilder copy = copyNamedWriteable(original);
+            assertEquals(original, copy);
+            assertEquals(original.hashCode(), copy.hashCode());
+            assertNotSame(original, copy);
+        }
+    }
+
+    public void testXContentRoundTrip() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            ExpertRescorerBuilder original = randomBuilder();
+            XContentBuilder source = XContentFactory.contentBuilder(randomFrom(XContentType.values()));
+            original.toXContent(source, EMPTY_PARAMS);
+            assertEquals(original, parse(source));
+        }
+    }
+
+    public void testEqualsAndHashCode() {
+        for (int i = 0; i < 20; i++) {
+            EqualsHashCodeTestUtils.checkEqualsAndHashCode(randomBuilder(), this::copyNamedWriteable,
+                ExpertRescorerBuilderTests::mutate);
+        }
+    }
+
+    public void testDefaults() throws IOException {
+        XContentBuilder source = XContentFactory.jsonBuilder().startObject().startObject(ExpertRescorerBuilder.NAME)
+            .field("script", MatchScoreFactory.NAME).endObject().endObject();
+        ExpertRescorerBuilder builder = (ExpertRescorerBuilder) parse(source);
+        assertEquals(MatchScoreFactory.NAME, builder.script());
+        assertTrue(builder.params().isEmpty());
+        assertEquals(ExpertRescorerBuilder.DEFAULT_QUERY_WEIGHT, builder.queryWeight(), 0f);
+        assertEquals(ExpertRescorerBuilder.DEFAULT_RESCORE_QUERY_WEIGHT, builder.rescoreQueryWeight(), 0f);
+        assertEquals(ExpertRescorerBuilder.DEFAULT_SCORE_MODE, builder.scoreMode());
+        assertEquals(ExpertRescorerBuilder.DEFAULT_PARALLELISM, builder.parallelism());
+        assertNull(builder.windowSize());
+    }
+
+    public void testParseErrors() throws IOException {
+        XContentBuilder noScript = XContentFactory.jsonBuilder().startObject().startObject(ExpertRescorerBuilder.NAME)
+            .field("query_weight", 0).endObject().endObject();
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> parse(noScript));
+        assertEquals("[expert_score] requires [script]", e.getMessage());
+
+        expectThrows(IllegalArgumentException.class, () -> randomBuilder().parallelism(0));
+    }
+}
@@ -0,0 +1,110 @@
+package org.elasticsearch.plugin.score.stats;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptyList;
+
+public class ExpertStatsResponseTests extends ESTestCase {
+
+    private static ScriptStats.Snapshot randomSnapshot() {
+        ScriptStats stats = new ScriptStats();
+        for (int i = between(0, 5); i > 0; i--) {
+            stats.onFactory();
+            stats.onExecute(between(1, 100), randomNonNegativeLong() >>> 8);
+            stats.onExecute(randomNonNegativeLong() >>> 8);
+            stats.onLoad(between(0, 1000));
+            stats.onSourceLoad(between(0, 1000));
+            stats.onAlgorithm(between(0, 1000));
+            stats.onMissingField();
+            stats.onPruned(between(0, 10));
+            stats.onSkippedFields(between(0, 10));
+            stats.onSignatureSkip();
+            stats.onOrdinalHit();
+            stats.onBudgetExhausted();
+            stats.onDegraded(between(0, 10));
+        }
+        return stats.snapshot();
+    }
+
+    private static ExpertStatsResponse.NodeStats randomNodeStats(int i) {
+        DiscoveryNode node = new DiscoveryNode("node_" + i, buildNewFakeTransportAddress(), Version.CURRENT);
+        Map<String, ScriptStats.Snapshot> scripts = new HashMap<>();
+        for (int s = between(0, 3); s > 0; s--) {
+            scripts.put(randomAlphaOfLength(5), randomSnapshot());
+        }
+        List<SlowScoreTracer.Record> slowScores = new ArrayList<>();
+        for (int r = between(0, 3); r > 0; r--) {
+            slowScores.add(new SlowScoreTracer.Record(randomNonNegativeLong(), randomNonNegativeLong(),
+                randomAlphaOfLength(5), randomAlphaOfLength(5), between(-1, 10), between(0, 1000),
+                randomAlphaOfLength(5), between(0, 1000), randomUnicodeOfLength(10), randomNonNegativeLong()));
+        }
+        long warmupNanos = randomBoolean() ? -1 : randomNonNegativeLong();
+        return new ExpertStatsResponse.NodeStats(node, scripts, slowScores, warmupNanos, between(0, 100),
+            randomNonNegativeLong());
+    }
+
+    public void testSerialization() throws IOException {
+        List<ExpertStatsResponse.NodeStats> nodes = new ArrayList<>();
+        for (int i = between(0, 4); i > 0; i--) {
+            nodes.add(randomNodeStats(i));
+        }
+        ExpertStatsResponse response = new ExpertStatsResponse(new ClusterName("test"), nodes, emptyList());
+        BytesStreamOutput out = new BytesStreamOutput();
+        response.writeTo(out);
+        try (StreamInput in = out.bytes().streamInput()) {
+            ExpertStatsResponse read = ExpertStatsAction.INSTANCE.getResponseReader().read(in);
+            assertEquals(response.getClusterName(), read.getClusterName());
+            assertEquals(Strings.toString(response), Strings.toString(read));
+        }
+    }
+
+    public void testSnapshotSerialization() throws IOException {
+        ScriptStats.Snapshot snapshot = randomSnapshot();
+        BytesStreamOutput out = new BytesStreamOutput();
+        snapshot.writeTo(out);
+        try (StreamInput in = out.bytes().streamInput()) {
+            ScriptStats.Snapshot read = new ScriptStats.Snapshot(in);
+            assertEquals(snapshot.docs(), read.docs());
+            assertEquals(snapshot.loadNanos(), read.loadNanos());
+            assertEquals(Strings.toString(snapshot), Strings.toString(read));
+        }
+    }
+
+    public void testRequestSerialization() throws IOException {
+        ExpertStatsAction.Request request = new ExpertStatsAction.Request(generateRandomStringArray(3, 5, false))
+            .slowScores(randomBoolean());
+        BytesStreamOutput out = new BytesStreamOutput();
+        request.writeTo(out);
+        ExpertStatsAction.Request read = new ExpertStatsAction.Request();
+        try (StreamInput in = out.bytes().streamInput()) {
+            read.readFrom(in);
+        }
+        assertArrayEquals(request.nodesIds(), read.nodesIds());
+        assertEquals(request.slowScores(), read.slowScores());
+
+        ExpertStatsAction.NodeRequest nodeRequest = new ExpertStatsAction.NodeRequest("node", request);
+        out = new BytesStreamOutput();
+        nodeRequest.writeTo(out);
+        ExpertStatsAction.NodeRequest readNode = new ExpertStatsAction.NodeRequest();
+        try (StreamInput in = out.bytes().streamInput()) {
+            readNode.readFrom(in);
+        }
+        assertEquals(request.slowScores(), readNode.slowScores());
+    }
+
+    public void testStreamableResponseUnsupported() {
+        expectThrows(UnsupportedOperationException.class, ExpertStatsAction.INSTANCE::newResponse);
+    }
+}